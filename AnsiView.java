@@ -0,0 +1,141 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Shows FloorFrames on a terminal with ANSI escape sequences, for playing
+ * where there's no display, like over SSH.
+ *
+ * The first frame clears the screen and draws everything. After that, only
+ * the cells that changed are written, each preceded by a cursor move unless
+ * it follows straight on from the last one, and a colour change only when
+ * the colour differs. The whole frame goes out in one write. Grey levels
+ * become the nearest of the 256 terminal colours: the grey ramp for white,
+ * the colour cube's reds for red.
+ */
+public class AnsiView implements Display {
+
+    private static final byte ESC = 27;
+
+    private final OutputStream out;
+
+    private int cols = -1;
+    private int rows = -1;
+    private int[] shown = new int[0];
+
+    private byte[] buf = new byte[4096];
+    private int len = 0;
+
+    private long bytesWritten = 0;
+
+    public AnsiView (OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Writes a frame, or whatever changed in it since the last.
+     * @param frame The frame. A new size redraws the whole screen.
+     */
+    @Override
+    public void show (FloorFrame frame) {
+
+        len = 0;
+        boolean full = frame.getWidth() != cols || frame.getHeight() != rows;
+
+        if (full) {
+            cols = frame.getWidth();
+            rows = frame.getHeight();
+            if (shown.length < cols*rows) shown = new int[cols*rows];
+            Arrays.fill(shown, 0, cols*rows, -1);
+            // -1 matches no cell, so everything is drawn.
+            put(ESC); put("[0m"); put(ESC); put("[2J");
+        }
+
+        int colour = -1;        // The terminal's current colour code.
+        int atRow = -1, atCol = -1;  // Where the cursor is, if known.
+
+        for (int row = 0; row < rows; row++)
+            for (int col = 0; col < cols; col++) {
+
+                int cell = frame.get(col, row);
+                if (cell == shown[row*cols + col]) continue;
+                shown[row*cols + col] = cell;
+
+                if (row != atRow || col != atCol) {
+                    put(ESC); put('[');
+                    putInt(row + 1); put(';');
+                    putInt(2*col + 1); put('H');
+                }
+
+                int code = colourCode(cell);
+                if (code != colour) {
+                    put(ESC); put("[38;5;");
+                    putInt(code); put('m');
+                    colour = code;
+                }
+
+                char glyph = FloorFrame.glyph(cell);
+                put(glyph < 128 ? glyph : '?');
+                put(' ');
+                // A space after every character, as on the screen.
+
+                atRow = row;
+                atCol = col + 1;
+
+            }
+
+        if (len == 0) return;
+        put(ESC); put('[');
+        putInt(rows + 1); put(";1H");
+        // Leaves the cursor below the floor.
+
+        try {
+            out.write(buf, 0, len);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        bytesWritten += len;
+
+    }
+
+    // How many bytes have been written, for keeping an eye on the link.
+    public long getBytesWritten () {
+        return bytesWritten;
+    }
+
+    // The 256-colour code for a cell's colour at its grey level.
+    private static int colourCode (int cell) {
+
+        int shade = FloorFrame.shade(cell);
+        if (FloorFrame.colour(cell) == FloorFrame.RED) return 16 + 36*((shade*5 + 127)/255);
+        // The colour cube starts at 16, six levels to a side, red the slowest.
+
+        if (shade == 255) return 231;   // White.
+        if (shade < 4) return 16;       // Black.
+        return 232 + (shade*23 + 127)/255;
+        // The grey ramp, 232 to 255, darkest first.
+
+    }
+
+    private void put (char c) {
+        if (len == buf.length) buf = Arrays.copyOf(buf, 2*len);
+        buf[len++] = (byte) c;
+    }
+
+    private void put (byte b) {
+        if (len == buf.length) buf = Arrays.copyOf(buf, 2*len);
+        buf[len++] = b;
+    }
+
+    private void put (String s) {
+        for (int i = 0; i < s.length(); i++) put(s.charAt(i));
+    }
+
+    private void putInt (int n) {
+        if (n >= 10) putInt(n/10);
+        put((char) ('0' + n%10));
+    }
+
+}
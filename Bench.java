@@ -0,0 +1,741 @@
+import java.awt.Font;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Measures the hot paths of the game: line-of-sight, field of view, building
+ * the floor display and the entity turn loop. Each case is warmed up, then
+ * timed, and reported as operations per second and bytes allocated per
+ * operation, so a change can be compared against what came before it.
+ *
+ * Run it from wherever the classes are:
+ *   java Bench [filter]
+ * Only cases whose name contains the filter are run. No window is ever
+ * opened; the display cases draw into a TileView off screen, which works
+ * with or without one to draw to. It needs a HotSpot JVM, for counting what
+ * each thread allocates.
+ */
+public class Bench {
+
+    private static final long WARMUP_NANOS = 500_000_000L;
+    private static final long MEASURE_NANOS = 1_000_000_000L;
+
+    private static final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Keeps the results of measured operations alive, so the JIT can't
+     * throw the work away.
+     */
+    private static long sink;
+
+    private static String filter = "";
+
+    // One benchmarked operation. Returns anything derived from its work.
+    private interface Op {
+        long run ();
+    }
+
+    public static void main (String[] args) {
+
+        if (args.length > 0) filter = args[0];
+
+        benchLOS();
+        benchLOSBatch();
+        benchRays();
+        benchFov();
+        benchDisplay();
+        benchTurns();
+        benchChurn();
+        benchNearby();
+        benchPaths();
+        benchFlow();
+        benchEdits();
+        benchGenerate();
+        benchLevels();
+        benchPaging();
+
+        System.out.println("(sink " + (sink & 1) + ")");
+
+    }
+
+    /**
+     * Every line-of-sight entry point over a spread of offsets and wall
+     * densities, reading walls from the floor grid and from WallBits.
+     * The kernel should never allocate, and the run stops if it does.
+     */
+    private static void benchLOS () {
+
+        int[][] offsets = {{1, 1}, {3, 2}, {7, 5}, {13, 8}, {20, 20}, {20, 3}, {19, -7}, {20, 0}, {0, 20}};
+        double[] densities = {0, 0.1, 0.3};
+
+        for (double density : densities) {
+
+            WorldGrid floor = randomFloor(GameShell.defaultXRad, GameShell.defaultYRad, density, 1);
+            WorldGrid contents = new WorldGrid(floor.getXRad(), floor.getYRad());
+            final LosUtil ul = new LosUtil(new GameUtil(floor, contents));
+            GameUtil ugBits = new GameUtil(floor, contents);
+            final LosUtil ulBits = new LosUtil(ugBits);
+            WallBits walls = new WallBits(floor.getWidth(), floor.getHeight());
+            walls.load(floor);
+            ugBits.setWalls(walls);
+
+            for (final int[] o : offsets) {
+
+                final int x1 = -floor.getXRad(), y1 = o[1] < 0 ? floor.getYRad() : -floor.getYRad();
+                final int x2 = x1 + o[0], y2 = y1 + o[1];
+                String where = " d=" + density + " (" + o[0] + "," + o[1] + ")";
+
+                measureNoAlloc("los.kernel" + where, new Op() {
+                    public long run () { return ul.los(x1, y1, x2, y2); }
+                });
+                measureNoAlloc("los.kernel+bits" + where, new Op() {
+                    public long run () { return ulBits.los(x1, y1, x2, y2); }
+                });
+                measure("los.direct" + where, new Op() {
+                    public long run () { return LosUtil.vis(ul.los(x1, y1, x2, y2)).ordinal(); }
+                });
+                measure("los.frac" + where, new Op() {
+                    public long run () { return (long) (LosUtil.fraction(ul.los(x1, y1, x2, y2)) * 1000); }
+                });
+
+            }
+
+        }
+
+    }
+
+    /**
+     * The same offsets as benchLOS, but away from the edge of a bigger floor,
+     * where los reads them from RayTable templates against WallBits.
+     */
+    private static void benchRays () {
+
+        int[][] offsets = {{3, 2}, {7, 5}, {13, 8}, {20, 20}, {19, -7}, {40, 25}};
+
+        for (double density : new double[]{0, 0.1, 0.3}) {
+
+            WorldGrid floor = randomFloor(64, 64, density, 1);
+            GameUtil ug = new GameUtil(floor, new WorldGrid(64, 64));
+            WallBits walls = new WallBits(floor.getWidth(), floor.getHeight());
+            walls.load(floor);
+            ug.setWalls(walls);
+            final LosUtil ul = new LosUtil(ug);
+
+            for (final int[] o : offsets) {
+                final int x1 = -40, y1 = o[1] < 0 ? 40 : -40;
+                measure("los.rays+bits d=" + density + " (" + o[0] + "," + o[1] + ")", new Op() {
+                    public long run () { return ul.los(x1, y1, x1 + o[0], y1 + o[1]); }
+                });
+            }
+
+        }
+
+    }
+
+    /**
+     * Line-of-sight from one tile to many: every tile within 16, and 100
+     * scattered ones, asked one at a time and as a batch.
+     */
+    private static void benchLOSBatch () {
+        for (double density : new double[]{0.1, 0.3}) benchLOSBatch(density);
+    }
+
+    private static void benchLOSBatch (double density) {
+
+        WorldGrid floor = randomFloor(32, 32, density, 3);
+        floor.setAt(0, 0, 0);
+        final LosUtil ul = new LosUtil(new GameUtil(floor, new WorldGrid(32, 32)));
+
+        int[][] xs = new int[2][], ys = new int[2][];
+        xs[0] = new int[33*33];
+        ys[0] = new int[33*33];
+        for (int i = 0; i < 33*33; i++) {
+            xs[0][i] = i % 33 - 16;
+            ys[0][i] = i / 33 - 16;
+        }
+        Random rand = new Random(6);
+        xs[1] = new int[100];
+        ys[1] = new int[100];
+        for (int i = 0; i < 100; i++) {
+            xs[1][i] = rand.nextInt(65) - 32;
+            ys[1][i] = rand.nextInt(65) - 32;
+        }
+        String[] names = {"d=" + density + " r=16 n=1089", "d=" + density + " scattered n=100"};
+
+        for (int c = 0; c < 2; c++) {
+
+            final int[] tx = xs[c], ty = ys[c];
+            final long[] out = new long[tx.length];
+
+            measure("los.looped " + names[c], new Op() {
+                public long run () {
+                    long seen = 0;
+                    for (int i = 0; i < tx.length; i++) if (LosUtil.aperture(ul.los(0, 0, tx[i], ty[i])) >= 0) seen++;
+                    return seen;
+                }
+            });
+            measure("los.batch " + names[c], new Op() {
+                public long run () { return ul.losBatch(0, 0, tx, ty, tx.length, out); }
+            });
+
+        }
+
+    }
+
+    /**
+     * A whole field of view from the middle of generated maps of several
+     * sizes. The ring walk is only run on the smaller ones, since it costs
+     * area times distance. Limited to 16 tiles, straight out or in a cone,
+     * both ought to cost the same whatever the size of the map.
+     */
+    private static void benchFov () {
+
+        int[] radii = {GameShell.defaultXRad, 32, 128, 512};
+
+        for (int rad : radii) {
+
+            WorldGrid floor = randomFloor(rad, rad, 0.1, 2);
+            floor.setAt(0, 0, 0);
+            final VisData out = new VisData();
+            int size = floor.getWidth();
+
+            final ShadowCastFov shadow = new ShadowCastFov(floor);
+            measure("fov.shadowcast " + size + "x" + size, new Op() {
+                public long run () {
+                    shadow.floorVis(0, 0, out);
+                    return out.get(0, 0).ordinal();
+                }
+            });
+
+            ViewLimit[] limits = {
+                new ViewLimit(16, ViewLimit.Metric.EUCLIDEAN),
+                new ViewLimit(16, ViewLimit.Metric.CHEBYSHEV, Math.PI/2, Math.PI/6)
+            };
+            for (final ViewLimit limit : limits) {
+                measure("fov.shadowcast " + size + "x" + size + (limit.hasCone() ? " cone16" : " r16"), new Op() {
+                    public long run () {
+                        shadow.floorVis(0, 0, limit, out);
+                        return out.get(0, 0).ordinal();
+                    }
+                });
+            }
+
+            if (rad <= 32) {
+                final GameUtil ring = new GameUtil(floor, new WorldGrid(rad, rad));
+                measure("fov.ring " + size + "x" + size, new Op() {
+                    public long run () {
+                        ring.floorVis(0, 0, out);
+                        return out.get(0, 0).ordinal();
+                    }
+                });
+                final ViewLimit limit = limits[0];
+                measure("fov.ring " + size + "x" + size + " r16", new Op() {
+                    public long run () {
+                        ring.floorVis(0, 0, limit, out);
+                        return out.get(0, 0).ordinal();
+                    }
+                });
+            }
+
+        }
+
+    }
+
+    /**
+     * Drawing the frame that printFloor shows, and showing it on a TileView
+     * (which works headless, short of reaching the screen) and an AnsiView. The player stands
+     * still, so the field of view comes out of the cache; on the bigger floor
+     * one enemy steps back and forth, so a couple of cells change each time.
+     */
+    private static void benchDisplay () {
+
+        setUpShell(GameShell.defaultXRad);
+
+        measure("display.drawFloor", new Op() {
+            public long run () { return GameShell.drawFloor().get(0, 0); }
+        });
+
+        final TileView tiles = new TileView(new Font("Courier New", Font.PLAIN, 20));
+        for (int rad : new int[]{GameShell.defaultXRad, 128}) {
+
+            setUpShell(rad);
+            final int id = GameShell.spawnEntity(EntType.ENEMY, 1, 1);
+            measure("display.tileView rad=" + rad, new Op() {
+                int step = 1;
+                public long run () {
+                    GameShell.moveEntity(id, step, 0);
+                    step = -step;
+                    tiles.show(GameShell.drawFloor());
+                    return tiles.getCellsDrawn();
+                }
+            });
+
+            final AnsiView term = new AnsiView(new OutputStream() {
+                public void write (int b) { }
+                public void write (byte[] b, int off, int len) { }
+            });
+            term.show(GameShell.drawFloor());
+            final long firstFrame = term.getBytesWritten();
+            measure("display.ansiView rad=" + rad + " (first frame " + firstFrame + " B)", new Op() {
+                int step = 1;
+                public long run () {
+                    GameShell.moveEntity(id, step, 0);
+                    step = -step;
+                    term.show(GameShell.drawFloor());
+                    return term.getBytesWritten();
+                }
+            });
+
+        }
+
+    }
+
+    /**
+     * A whole turn of the hand-made level with nothing to show it on, then
+     * one turn of random enemy movement, on a floor with room for about four
+     * tiles per enemy. The count actually spawned is reported alongside.
+     */
+    private static void benchTurns () {
+
+        GameShell.newWorld(GameShell.defaultXRad, GameShell.defaultYRad);
+        GameShell.startLevel();
+        measure("turn.step WAIT (no display)", new Op() {
+            public long run () {
+                GameShell.step(Move.WAIT);
+                return 0;
+            }
+        });
+
+        final TurnExecutor turns = new TurnExecutor(16);
+        measure("turn.executor WAIT (no display)", new Op() {
+            public long run () {
+                try {
+                    turns.submit(Move.WAIT, false);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return turns.getQueueDepth();
+            }
+        });
+        try {
+            turns.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (turns.getTurnsRun() > 0)
+            System.out.printf("  mean input-to-frame latency %.1f us over %d turns%n",
+                    turns.getMeanLatencyNanos() / 1e3, turns.getTurnsRun());
+
+        int[] counts = {10, 100, 1000, 10000, 100000};
+
+        for (int n : counts) {
+
+            setUpShell(Math.max(GameShell.defaultXRad, (int) Math.sqrt(n)));
+            int[] ids = spawnMany(EntType.ENEMY, n);
+            measure("turn.enemiesRandMove n=" + n + " (spawned " + ids.length + ")", new Op() {
+                public long run () {
+                    GameShell.enemiesRandMove();
+                    return 0;
+                }
+            });
+
+        }
+
+    }
+
+    // Spawning a batch of entities, killing them all and cleaning up after.
+    private static void benchChurn () {
+
+        setUpShell(GameShell.defaultXRad);
+
+        measure("churn.spawn/kill/clean x100", new Op() {
+            public long run () {
+                int[] ids = spawnMany(EntType.FURNITURE, 100);
+                for (int id : ids) GameShell.killEntity(id);
+                GameShell.cleanEntities();
+                return ids.length;
+            }
+        });
+
+    }
+
+    /**
+     * Finding the enemies within 8 tiles of a point among 100k entities,
+     * through the spatial index, against scanning every enemy's coordinates
+     * in flat arrays, as laid out in the EntityStore.
+     */
+    private static void benchNearby () {
+
+        if (!"nearby.index r=8 n=100000".contains(filter) && !"nearby.scan r=8 n=100000".contains(filter)) return;
+
+        setUpShell(320);
+        spawnMany(EntType.ENEMY, 50000);
+        spawnMany(EntType.FURNITURE, 50000);
+
+        final SpatialIndex.Visitor count = new SpatialIndex.Visitor() {
+            public void visit (int id, int x, int y) { sink += id; }
+        };
+        measure("nearby.index r=8 n=100000", new Op() {
+            public long run () { return GameShell.entitiesWithin(0, -300, 8, EntType.ENEMY, count); }
+        });
+
+        final int[] ids = new int[50000], xs = new int[50000], ys = new int[50000];
+        final int enemies = GameShell.entitiesWithin(-320, -320, 320, 320, EntType.ENEMY, new SpatialIndex.Visitor() {
+            int n = 0;
+            public void visit (int id, int x, int y) {
+                ids[n] = id;
+                xs[n] = x;
+                ys[n] = y;
+                n++;
+            }
+        });
+        // Copied out once, so the scan below touches nothing but the arrays.
+
+        measure("nearby.scan r=8 n=100000", new Op() {
+            public long run () {
+                // What there was before: every enemy's coordinates, checked.
+                int found = 0;
+                for (int i = 0; i < enemies; i++) {
+                    int dx = xs[i], dy = ys[i] + 300;
+                    if (dx*dx + dy*dy <= 64) {
+                        count.visit(ids[i], xs[i], ys[i]);
+                        found++;
+                    }
+                }
+                return found;
+            }
+        });
+
+    }
+
+    /**
+     * Two hundred enemies walking a step each toward the middle of a floor
+     * strewn with walls, per operation. Uncached, every step is a fresh A*
+     * search; cached, the enemies mostly walk paths already found, theirs or
+     * each other's.
+     */
+    private static void benchPaths () {
+
+        int rad = 128;
+        final int walkers = 200;
+        final WorldGrid floor = randomFloor(rad, rad, 0.25, 4);
+        for (int y = -2; y <= 2; y++)
+            for (int x = -2; x <= 2; x++) floor.setAt(x, y, 0);
+        // So the middle isn't walled in.
+        final GameUtil ug = new GameUtil(floor, new WorldGrid(rad, rad));
+
+        final int[] startX = new int[walkers], startY = new int[walkers];
+        Random rand = new Random(5);
+        for (int k = 0; k < walkers; k++)
+            do {
+                startX[k] = rand.nextInt(2*rad + 1) - rad;
+                startY[k] = rand.nextInt(2*rad + 1) - rad;
+            } while (!ug.tileClear(startX[k], startY[k]));
+
+        for (int capacity : new int[]{0, 1 << 16}) {
+
+            final Pathfinder paths = new Pathfinder(floor, ug, 1 << 15, capacity);
+            final int[] x = startX.clone(), y = startY.clone();
+            String size = floor.getWidth() + "x" + floor.getWidth();
+
+            measure((capacity == 0 ? "path.astar " : "path.cached ") + size + " n=" + walkers, new Op() {
+                public long run () {
+                    long moved = 0;
+                    for (int k = 0; k < walkers; k++) {
+                        int next = paths.nextStep(x[k], y[k], 0, 0);
+                        if (next == -1) {
+                            x[k] = startX[k];
+                            y[k] = startY[k];
+                            continue;
+                        }
+                        // Arrived, or no way there: start over.
+                        x[k] = paths.tileX(next);
+                        y[k] = paths.tileY(next);
+                        moved++;
+                    }
+                    return moved;
+                }
+            });
+            if (capacity > 0 && paths.getHits() + paths.getMisses() > 0)
+                System.out.println("  hits " + paths.getHits() + ", misses " + paths.getMisses()
+                        + ", failures " + paths.getFailures());
+
+        }
+
+    }
+
+    /**
+     * The field enemies follow to the player: built from nothing, against
+     * brought up to date after the player steps one tile; and a turn of
+     * enemies closing in with it.
+     */
+    private static void benchFlow () {
+
+        int rad = 128;
+        WorldGrid floor = randomFloor(rad, rad, 0.25, 4);
+        for (int y = -2; y <= 2; y++)
+            for (int x = -2; x <= 2; x++) floor.setAt(x, y, 0);
+        GameUtil ug = new GameUtil(floor, new WorldGrid(rad, rad));
+
+        final FlowField rebuilt = new FlowField(floor, ug, 64);
+        measure("flow.rebuild r=64", new Op() {
+            int k = 0;
+            public long run () {
+                rebuilt.update((k++ & 1) * 2, 0);
+                return rebuilt.distance(1, 1);
+            }
+        });
+
+        final FlowField stepped = new FlowField(floor, ug, 64);
+        measure("flow.step r=64", new Op() {
+            int k = 0;
+            public long run () {
+                stepped.update(k++ & 1, 0);
+                return stepped.distance(1, 1);
+            }
+        });
+        if (stepped.getRebuilds() > 0 && rebuilt.getRebuilds() > 0) {
+            long before = stepped.getTouched();
+            for (int k = 0; k < 1000; k++) stepped.update(k & 1, 0);
+            long perStep = (stepped.getTouched() - before) / 1000;
+            before = rebuilt.getTouched();
+            for (int k = 0; k < 1000; k++) rebuilt.update((k & 1) * 2, 0);
+            System.out.println("  tiles looked at: " + perStep + " a step, "
+                    + (rebuilt.getTouched() - before) / 1000 + " a rebuild");
+        }
+
+        for (int n : new int[]{1000, 10000}) {
+            setUpShell(Math.max(GameShell.defaultXRad, (int) Math.sqrt(n)));
+            int[] ids = spawnMany(EntType.ENEMY, n);
+            measure("turn.enemiesChase n=" + n + " (spawned " + ids.length + ")", new Op() {
+                public long run () {
+                    GameShell.enemiesChase();
+                    return 0;
+                }
+            });
+        }
+
+    }
+
+    /**
+     * One edit of a 255x255 floor with its walls kept in WallBits: a block of
+     * wall filled in, a room drawn around it, and the block dug out again.
+     */
+    private static void benchEdits () {
+
+        WorldGrid floor = new WorldGrid(127, 127);
+        final DrawUtil ud = new DrawUtil(floor);
+        ud.setWalls(new WallBits(floor.getWidth(), floor.getHeight()));
+
+        measure("draw.edit 64x64 room", new Op() {
+            public long run () {
+                ud.begin();
+                ud.drawWallArea(-31, -31, 31, 31);
+                ud.drawRoom(-32, -32, 32, 32);
+                ud.deleteWallArea(-31, -31, 31, 31);
+                return ud.commit().getX2();
+            }
+        });
+
+    }
+
+    /**
+     * Generating levels from seeds at several sizes, one at a time and in
+     * batches spread over the common pool. A new seed every time, so no two
+     * levels are the same; the batch rate is given in levels per second too.
+     */
+    private static void benchGenerate () {
+
+        final int batch = 2*ForkJoinPool.commonPool().getParallelism();
+
+        for (int rad : new int[]{32, 128, 512}) {
+
+            final LevelGen gen = new LevelGen(rad, rad);
+            int size = 2*rad + 1;
+            final long[] seed = {0};
+
+            measure("level.generate " + size + "x" + size, new Op() {
+                public long run () {
+                    return gen.generate(seed[0]++).getSpawns().length;
+                }
+            });
+
+            final long[] seeds = new long[batch];
+            String name = "level.generateAll " + size + "x" + size + " x" + batch;
+            long start = System.nanoTime(), before = seed[0];
+            measure(name, new Op() {
+                public long run () {
+                    for (int i = 0; i < batch; i++) seeds[i] = seed[0]++;
+                    return gen.generateAll(seeds, ForkJoinPool.commonPool()).length;
+                }
+            });
+            if (name.contains(filter))
+                System.out.printf("  %.1f levels/s%n", (seed[0] - before) * 1e9 / (System.nanoTime() - start));
+
+        }
+
+    }
+
+    /**
+     * Loading a 4095x4095 level file -- the hand-made level with the far
+     * walls around it -- into a fresh world, and saving it again.
+     */
+    private static void benchLevels () {
+
+        if (!"level.load 4095x4095".contains(filter) && !"level.save 4095x4095".contains(filter)) return;
+
+        final Path path;
+        try {
+            path = Files.createTempFile("pspy", ".level");
+            path.toFile().deleteOnExit();
+            setUpShell(2047);
+            GameShell.saveLevel(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        measure("level.load 4095x4095", new Op() {
+            public long run () {
+                try {
+                    GameShell.loadLevel(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return GameShell.getFloorXRad();
+            }
+        });
+
+        measure("level.save 4095x4095", new Op() {
+            public long run () {
+                try {
+                    GameShell.saveLevel(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return 0;
+            }
+        });
+
+    }
+
+    /**
+     * The player walking back and forth across a paged 4095x4095 world with
+     * room for 64 chunks per layer, so the walk keeps paging chunks in and out.
+     */
+    private static void benchPaging () {
+
+        if (!"paging.movePlayer 4095x4095 budget=64".contains(filter)) return;
+
+        Path dir;
+        try {
+            dir = Files.createTempDirectory("pspy");
+            GameShell.newPagedWorld(2047, 2047, dir, 64L*WorldGrid.CHUNK*WorldGrid.CHUNK*4);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        GameShell.spawnPlayer(0, 0);
+
+        measure("paging.movePlayer 4095x4095 budget=64", new Op() {
+            int step = 1, x = 0;
+            public long run () {
+                if (x + step > 2000 || x + step < -2000) step = -step;
+                GameShell.movePlayer(step, 0);
+                x += step;
+                return x;
+            }
+        });
+
+        GameShell.newWorld(GameShell.defaultXRad, GameShell.defaultYRad);
+        for (File f : dir.toFile().listFiles()) f.delete();
+        dir.toFile().delete();
+
+    }
+
+    /**
+     * Times an operation and prints the result.
+     * @return Bytes allocated per operation, or 0 if the filter skipped it.
+     */
+    private static double measure (String name, Op op) {
+
+        if (!name.contains(filter)) return 0;
+
+        long end = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < end) sink += op.run();
+
+        long thread = Thread.currentThread().getId();
+        long ops = 0;
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        end = start + MEASURE_NANOS;
+        long now;
+        do {
+            for (int i = 0; i < 64; i++) sink += op.run();
+            ops += 64;
+        } while ((now = System.nanoTime()) < end);
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+        System.out.printf("%-56s %14.1f ops/s %12.1f B/op%n",
+                name, ops * 1e9 / (now - start), (double) bytes / ops);
+        return (double) bytes / ops;
+
+    }
+
+    // The same, for an operation that should never allocate. Throws if it did.
+    private static void measureNoAlloc (String name, Op op) {
+
+        double perOp = measure(name, op);
+        if (perOp > 0) throw new IllegalStateException(name + " allocated " + perOp + " bytes per query.");
+
+    }
+
+    // Starts a fresh world with the hand-made level and the player in it.
+    private static void setUpShell (int rad) {
+
+        GameShell.newWorld(rad, rad);
+        GameShell.buildLevel();
+        GameShell.spawnPlayer(0, 0);
+
+    }
+
+    /**
+     * Spawns up to n entities onto whatever free tiles there are, working
+     * through the floor from the bottom left.
+     * @return The ids of the entities spawned.
+     */
+    private static int[] spawnMany (EntType type, int n) {
+
+        int[] ids = new int[n];
+        int spawned = 0;
+        int xRad = GameShell.getFloorXRad(), yRad = GameShell.getFloorYRad();
+        for (int y = -yRad; y <= yRad && spawned < n; y++)
+            for (int x = -xRad; x <= xRad && spawned < n; x++) {
+                int id = GameShell.spawnEntity(type, x, y);
+                if (id != -1) ids[spawned++] = id;
+            }
+
+        int[] result = new int[spawned];
+        System.arraycopy(ids, 0, result, 0, spawned);
+        return result;
+
+    }
+
+    private static WorldGrid randomFloor (int xRad, int yRad, double density, long seed) {
+
+        Random rand = new Random(seed);
+        WorldGrid floor = new WorldGrid(xRad, yRad);
+        for (int y = 0; y < floor.getHeight(); y++)
+            for (int x = 0; x < floor.getWidth(); x++)
+                if (rand.nextDouble() < density) floor.set(x, y, 1);
+        return floor;
+
+    }
+
+}
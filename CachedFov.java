@@ -0,0 +1,120 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the fields of view worked out for the last few viewpoints.
+ *
+ * A result stays good for as long as the floor doesn't change, so the cache
+ * is keyed by viewer and tagged with the floor's version it was computed
+ * against. The moment the version moves on, everything held is dropped. That
+ * way waiting, or walking into a wall, costs a lookup and a copy instead of a
+ * full pass. The cache keeps its own buffers, recycling the one it evicts.
+ * Views from one tile with different ViewLimits are kept apart.
+ */
+public class CachedFov implements FovEngine {
+
+    private final FovEngine engine;
+    private final WorldGrid floor;
+
+    private final LinkedHashMap<Key, VisData> recent;
+    private long cachedVersion;
+
+    // The buffer most recently pushed out of recent, ready to be refilled.
+    private VisData spare = null;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    // A viewpoint and what limits it.
+    private static class Key {
+
+        final int x;
+        final int y;
+        final ViewLimit limit;
+
+        Key (int x, int y, ViewLimit limit) {
+            this.x = x;
+            this.y = y;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key) o;
+            return x == k.x && y == k.y && limit.equals(k.limit);
+        }
+
+        @Override
+        public int hashCode () {
+            return (x*31 + y)*31 + limit.hashCode();
+        }
+
+    }
+
+    /**
+     * @param engine The FovEngine that does the actual work on a miss.
+     * @param floor The floor the engine works on.
+     * @param capacity How many viewpoints to remember at once.
+     */
+    public CachedFov (FovEngine engine, WorldGrid floor, final int capacity) {
+
+        this.engine = engine;
+        this.floor = floor;
+        cachedVersion = floor.getVersion();
+
+        recent = new LinkedHashMap<Key, VisData>(2*capacity, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<Key, VisData> eldest) {
+                if (size() <= capacity) return false;
+                spare = eldest.getValue();
+                return true;
+            }
+        };
+        // Access-ordered, so the least recently used viewpoint goes first.
+
+    }
+
+    @Override
+    public void floorVis (int x, int y, VisData out) {
+        floorVis(x, y, ViewLimit.NONE, out);
+    }
+
+    @Override
+    public void floorVis (int x, int y, ViewLimit limit, VisData out) {
+
+        long version = floor.getVersion();
+        if (version != cachedVersion) {
+            recent.clear();
+            cachedVersion = version;
+        }
+        // A changed floor invalidates every view at once.
+
+        Key key = new Key(x, y, limit);
+        VisData vd = recent.get(key);
+
+        if (vd != null) {
+            hits++;
+            out.copyFrom(vd);
+            return;
+        }
+
+        misses++;
+        engine.floorVis(x, y, limit, out);
+
+        vd = spare != null ? spare : new VisData();
+        spare = null;
+        vd.copyFrom(out);
+        recent.put(key, vd);
+
+    }
+
+    public long getHits () {
+        return hits;
+    }
+
+    public long getMisses () {
+        return misses;
+    }
+
+}
@@ -0,0 +1,14 @@
+/**
+ * Somewhere to show the floor: a window, a terminal, or nothing at all when
+ * the game is only being simulated.
+ */
+public interface Display {
+    
+    /**
+     * Shows a frame. The frame is reused, so it has to be copied or finished
+     * with before this returns.
+     * @param frame The floor as the player sees it.
+     */
+    public void show (FloorFrame frame);
+    
+}
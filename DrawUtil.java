@@ -1,19 +1,73 @@
 
+/**
+ * Draws and deletes walls on the floor, keeping the bit-packed copy of the
+ * walls in step if there is one.
+ * 
+ * Every primitive comes down to filling a rectangle, which the floor does a
+ * row of a chunk at a time rather than a tile at a time. Edits can be grouped
+ * into a transaction: begin, then any number of primitives, then commit,
+ * which reports the smallest rectangle holding everything they touched. By
+ * then the floor's version has moved on, so caches tagged with it know they
+ * may be stale, and the rectangle tells them whether their part of the floor
+ * is the part that changed.
+ */
 public class DrawUtil {
     
-    private final int[][] floor;
+    private final WorldGrid floor;
     private final int w;
     private final int h;
     
     private int brush = 1;
     
-    public DrawUtil (int[][] floor, int width, int height) {
+    // The bit-packed copy of the walls, if anything wants one. Kept in step.
+    private WallBits walls = null;
+    
+    // Whether a transaction is open, and what it has touched so far, by index.
+    // Empty while dirtyX2 < dirtyX1.
+    private boolean editing = false;
+    private int dirtyX1 = 0;
+    private int dirtyY1 = 0;
+    private int dirtyX2 = -1;
+    private int dirtyY2 = -1;
+    
+    public DrawUtil (WorldGrid floor) {
         this.floor = floor;
-        w = width;
-        h = height;
+        w = floor.getWidth();
+        h = floor.getHeight();
     }
     
     
+    /**
+     * Opens a transaction. Everything drawn or deleted from now until commit
+     * is reported together.
+     */
+    public void begin () {
+        
+        if (editing) throw new IllegalStateException("A transaction is already open.");
+        editing = true;
+        dirtyX1 = dirtyY1 = 0;
+        dirtyX2 = dirtyY2 = -1;
+        
+    }
+    
+    /**
+     * Closes the transaction begun last.
+     * @return The smallest rectangle, by coordinates, holding every tile
+     * drawn or deleted since begin, or TileRect.EMPTY if none were.
+     */
+    public TileRect commit () {
+        
+        if (!editing) throw new IllegalStateException("No transaction is open.");
+        editing = false;
+        if (dirtyX2 < dirtyX1) return TileRect.EMPTY;
+        return new TileRect(floor.iCx(dirtyX1), floor.iCy(dirtyY1), floor.iCx(dirtyX2), floor.iCy(dirtyY2));
+        
+    }
+    
+    public boolean isEditing () {
+        return editing;
+    }
+    
     /**
      * Generates the outer (permanent) walls of the level. Most other
      * walls will eventually not be of this type, because these are to prevent
@@ -22,55 +76,35 @@ public class DrawUtil {
     public void farWalls () {
         
         // Top and bottom sides plus corners
-        for (int i = 0; i < w; i++) {
-            floor[i][0] = brush;
-            floor[i][h-1] = brush;
-        }
+        paint(0, 0, w-1, 0, brush);
+        paint(0, h-1, w-1, h-1, brush);
         
         // Left and right sides minus corners
-        for (int i = 1; i < h-1; i++) {
-            floor[0][i] = brush;
-            floor[w-1][i] = brush;
+        if (h > 2) {
+            paint(0, 1, 0, h-2, brush);
+            paint(w-1, 1, w-1, h-2, brush);
         }
         
     }
     
     public void drawWall (int x, int y) {
         
-        if (!IndexUtil.goodCoords(x, y)) return;
-        floor[IndexUtil.cIx(x)][IndexUtil.cIy(y)] = brush;
+        if (!floor.goodCoords(x, y)) return;
+        paint(floor.cIx(x), floor.cIy(y), floor.cIx(x), floor.cIy(y), brush);
         
     }
     
     public void drawWallVertical (int x, int end1, int end2) {
         
-        if (!IndexUtil.goodCoords(x, end1) || !IndexUtil.goodCoords(x, end2)) return;
-        
-        if (end1 > end2) {
-            int temp = end1;
-            end1 = end2;
-            end2 = temp;
-        }
-        
-        for (int i = end1; i <= end2; i++) {
-            floor[IndexUtil.cIx(x)][IndexUtil.cIy(i)] = brush;
-        }
+        if (!floor.goodCoords(x, end1) || !floor.goodCoords(x, end2)) return;
+        paint(floor.cIx(x), floor.cIy(end1), floor.cIx(x), floor.cIy(end2), brush);
         
     }
     
     public void drawWallHorizontal (int y, int end1, int end2) {
         
-        if (!IndexUtil.goodCoords(end1, y) || !IndexUtil.goodCoords(end2, y)) return;
-        
-        if (end1 > end2) {
-            int temp = end1;
-            end1 = end2;
-            end2 = temp;
-        }
-        
-        for (int i = end1; i <= end2; i++) {
-            floor[IndexUtil.cIx(i)][IndexUtil.cIy(y)] = brush;
-        }
+        if (!floor.goodCoords(end1, y) || !floor.goodCoords(end2, y)) return;
+        paint(floor.cIx(end1), floor.cIy(y), floor.cIx(end2), floor.cIy(y), brush);
         
     }
     
@@ -84,31 +118,14 @@ public class DrawUtil {
      */
     public void drawWallArea (int x1, int y1, int x2, int y2) {
         
-        if (!IndexUtil.goodCoords(x1, y1) || !IndexUtil.goodCoords(x2, y2)) return;
-        
-        if (x1 > x2) {
-            int temp = x1;
-            x1 = x2;
-            x2 = temp;
-        }
-        
-        if (y1 > y2) {
-            int temp = y1;
-            y1 = y2;
-            y2 = temp;
-        }
-        
-        for (int i = x1; i <= x2; i++) {
-            for (int j = y1; j <= y2; j++) {
-                floor[IndexUtil.cIx(i)][IndexUtil.cIy(j)] = brush;
-            }
-        }
+        if (!floor.goodCoords(x1, y1) || !floor.goodCoords(x2, y2)) return;
+        paint(floor.cIx(x1), floor.cIy(y1), floor.cIx(x2), floor.cIy(y2), brush);
         
     }
     
     public void drawRoom (int x1, int y1, int x2, int y2) {
         
-        if (!IndexUtil.goodCoords(x1, y1) || !IndexUtil.goodCoords(x2, y2)) return;
+        if (!floor.goodCoords(x1, y1) || !floor.goodCoords(x2, y2)) return;
         
         drawWallVertical(x1, y1, y2);
         drawWallVertical(x2, y1, y2);
@@ -119,8 +136,10 @@ public class DrawUtil {
     
     public void deleteWall (int x, int y) {
         
-        if (!IndexUtil.goodCoords(x, y)) return;
-        floor[IndexUtil.cIx(x)][IndexUtil.cIy(y)] = 0;
+        int temp = brush;
+        brush = 0;
+        drawWall(x, y);
+        brush = temp;
         
     }
     
@@ -137,7 +156,7 @@ public class DrawUtil {
         
         int temp = brush;
         brush = 0;
-        drawWallVertical(y, x1, x2);
+        drawWallHorizontal(y, x1, x2);
         brush = temp;
         
     }
@@ -155,4 +174,54 @@ public class DrawUtil {
         brush = newBrush;
     }
     
+    public int getBrush () {
+        return brush;
+    }
+    
+    /**
+     * Starts keeping a bit-packed copy of the walls in step with the floor.
+     * @param wallBits A WallBits the size of the floor. Overwritten with
+     * the walls as they are now.
+     */
+    public void setWalls (WallBits wallBits) {
+        walls = wallBits;
+        walls.load(floor);
+    }
+    
+    /**
+     * What every primitive comes down to: fills a rectangle of the floor,
+     * by index, corners in either order, and the walls with it, and adds it
+     * to what the transaction has touched.
+     */
+    private void paint (int x1, int y1, int x2, int y2, int value) {
+        
+        if (x1 > x2) {
+            int temp = x1;
+            x1 = x2;
+            x2 = temp;
+        }
+        
+        if (y1 > y2) {
+            int temp = y1;
+            y1 = y2;
+            y2 = temp;
+        }
+        
+        floor.fill(x1, y1, x2, y2, value);
+        if (walls != null) walls.setRect(x1, y1, x2, y2, value != 0);
+        
+        if (dirtyX2 < dirtyX1) {
+            dirtyX1 = x1;
+            dirtyY1 = y1;
+            dirtyX2 = x2;
+            dirtyY2 = y2;
+        } else {
+            dirtyX1 = Math.min(dirtyX1, x1);
+            dirtyY1 = Math.min(dirtyY1, y1);
+            dirtyX2 = Math.max(dirtyX2, x2);
+            dirtyY2 = Math.max(dirtyY2, y2);
+        }
+        
+    }
+    
 }
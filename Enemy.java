@@ -1,10 +0,0 @@
-public class Enemy extends GameEntity {
-    
-    private final boolean isMob = true;
-    private int health = 100;
-    
-    public Enemy (int x, int y) {
-        super(x, y);
-    }
-    
-}
@@ -0,0 +1,158 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Works out where every enemy moves in a turn, in two phases, so the work
+ * can be spread over every core and doesn't depend on the order enemies are
+ * looked at in.
+ *
+ * First each enemy picks a direction and checks the tile it would step into
+ * against the floor and contents as they stand at the start of the turn,
+ * all in parallel and without changing anything. An enemy only means to
+ * move into a tile that was clear and empty. Then the intentions are sorted
+ * by destination, and where several enemies want the same tile, the one
+ * in the lowest row of the store gets it. The winners are left for
+ * the caller to carry out, since no two of them share a source or a
+ * destination and none of them moves into a tile anyone else left.
+ *
+ * Random directions come from each enemy's own stream in the store, so the
+ * moves decided are the same however the enemies are shared out between
+ * threads, and no thread waits on another for a number.
+ */
+public class EnemyMover {
+
+    private static final int[] DX = {1, 0, -1, 0};
+    private static final int[] DY = {0, 1, 0, -1};
+
+    // Below this many enemies a task stops splitting and does them itself.
+    private static final int THRESHOLD = 2048;
+
+    private static final long NO_MOVE = Long.MAX_VALUE;
+
+    private final EntityStore store;
+    private final WorldGrid floor;
+    private final GameUtil ug;
+    private final ForkJoinPool pool;
+
+    // Where enemies head this turn, or null for nowhere in particular.
+    private FlowField toward = null;
+
+    // Destination tile index in the high half, row in the low half.
+    private long[] intents = new long[0];
+    private byte[] dirs = new byte[0];
+
+    // The winners, by row, and how many there are.
+    private int[] movers = new int[0];
+    private int moveCount = 0;
+
+    public EnemyMover (EntityStore store, WorldGrid floor, GameUtil gameUtil, ForkJoinPool pool) {
+        this.store = store;
+        this.floor = floor;
+        ug = gameUtil;
+        this.pool = pool;
+    }
+
+    /**
+     * Decides the moves of every living enemy, each in a random direction.
+     * @return How many enemies move. See getId, getDx and getDy.
+     */
+    public int plan () {
+        return plan(null);
+    }
+
+    /**
+     * Decides the moves of every living enemy, each heading down a field
+     * where it can, and in a random direction where it can't.
+     * @param field Where to head, or null to wander.
+     * @return How many enemies move.
+     */
+    public int plan (FlowField field) {
+
+        toward = field;
+        int count = store.count(EntType.ENEMY);
+
+        if (intents.length < count) {
+            intents = new long[count];
+            dirs = new byte[count];
+            movers = new int[count];
+        }
+
+        if (count <= THRESHOLD) intend(0, count);
+        else pool.invoke(new Intend(0, count));
+
+        Arrays.parallelSort(intents, 0, count);
+
+        moveCount = 0;
+        long lastTile = -1;
+        for (int k = 0; k < count && intents[k] != NO_MOVE; k++) {
+            long tile = intents[k] >>> 32;
+            if (tile == lastTile) continue;
+            // Sorted, so the first claim on a tile has the lowest row.
+            movers[moveCount++] = (int) intents[k];
+            lastTile = tile;
+        }
+        Arrays.sort(movers, 0, moveCount);
+        // Carried out in row order, for the sake of anything watching.
+
+        return moveCount;
+
+    }
+
+    // The id of the kth enemy to move. Good until an entity is killed.
+    public int getId (int k) {
+        return store.idAt(EntType.ENEMY, movers[k]);
+    }
+
+    public int getDx (int k) {
+        return DX[dirs[movers[k]]];
+    }
+
+    public int getDy (int k) {
+        return DY[dirs[movers[k]]];
+    }
+
+    // The first phase over rows from to to, exclusive.
+    private void intend (int from, int to) {
+
+        for (int i = from; i < to; i++) {
+
+            intents[i] = NO_MOVE;
+            int dir = toward == null ? -1 : toward.downhill(store.xAt(EntType.ENEMY, i), store.yAt(EntType.ENEMY, i));
+            if (dir == -1) dir = store.randomAt(EntType.ENEMY, i).nextInt(4);
+            dirs[i] = (byte) dir;
+            int x = store.xAt(EntType.ENEMY, i) + DX[dir], y = store.yAt(EntType.ENEMY, i) + DY[dir];
+            if (!ug.tileClear(x, y) || ug.tileHasObject(x, y)) continue;
+
+            long tile = (long) floor.cIy(y)*floor.getWidth() + floor.cIx(x);
+            intents[i] = tile << 32 | i;
+
+        }
+
+    }
+
+    private class Intend extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Intend (int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute () {
+            if (to - from <= THRESHOLD) {
+                intend(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Intend(from, mid), new Intend(mid, to));
+        }
+
+    }
+
+}
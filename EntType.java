@@ -1,12 +1,14 @@
 public enum EntType {
     
-    ENEMY(0),
-    FURNITURE(1);
+    ENEMY(0, 100),
+    FURNITURE(1, 50);
     
     public final int ix;
+    public final int health;    // What one starts with when it's spawned.
     
-    private EntType (int typeIndex) {
+    private EntType (int typeIndex, int startHealth) {
         ix = typeIndex;
+        health = startHealth;
     }
     
 }
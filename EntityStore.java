@@ -0,0 +1,301 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Every entity but the player, held as columns of ints rather than objects.
+ *
+ * Each type has its own table, with one dense row per living entity and a
+ * column each for x, y and health, so going through every enemy is a walk
+ * down a few arrays. Killing an entity moves the last row of its table into
+ * its place, so the rows never have holes.
+ *
+ * Rows move, so entities are known from outside by id instead: the code kept
+ * for them in contents. An id is made from the entity's type, its slot in the
+ * table and the slot's generation (see IndexUtil), and each table maps slots
+ * to rows. A slot's generation goes up when its entity dies, so ids held
+ * after that are known to be stale, and the slot can go straight on a free
+ * list for the next entity spawned.
+ *
+ * Nothing is renumbered unless asked. Trimming only gives back the free
+ * slots above the highest one in use, a few at a time, and every id stays as
+ * it was. Compacting goes further, moving entities down into free slots, which
+ * changes their ids; whoever holds those has to be told.
+ *
+ * Each entity also has a stream of random numbers of its own, from the
+ * RandomStreams the store was made with, keyed by the id it was spawned
+ * with. It stays with the entity's row, so compacting doesn't change it.
+ */
+public class EntityStore {
+
+    /**
+     * Hears about each entity compact moves to another slot, whose id changes.
+     */
+    public interface Renamer {
+        public void renamed (int oldId, int newId, int x, int y);
+    }
+
+    private static final int NONE = -1;
+
+    private final IndexUtil ux;
+    private RandomStreams streams;
+    private final Table[] tables;
+
+    private static class Table {
+
+        // Dense columns, by row.
+        int[] x = new int[16];
+        int[] y = new int[16];
+        int[] health = new int[16];
+        int[] slot = new int[16];
+        SplittableRandom[] random = new SplittableRandom[16];
+        int count = 0;
+
+        // The row of each slot, or NONE for a free one, and its generation.
+        int[] row = new int[16];
+        int[] gen = new int[16];
+        int slots = 0;
+
+        // Freed slots, a stack. Compacting can leave slots in it that are no
+        // longer free, or above slots, which are passed over when popped.
+        int[] free = new int[16];
+        int freeCount = 0;
+
+    }
+
+    /**
+     * @param indexUtil Makes and takes apart ids.
+     * @param randomStreams Gives each entity spawned its stream.
+     */
+    public EntityStore (IndexUtil indexUtil, RandomStreams randomStreams) {
+        ux = indexUtil;
+        streams = randomStreams;
+        tables = new Table[EntType.values().length];
+        for (int t = 0; t < tables.length; t++) tables[t] = new Table();
+    }
+
+    /**
+     * Adds an entity. Doesn't check the tile.
+     * @return Its id, or -1 if every slot of its type is taken.
+     */
+    public int spawn (EntType type, int x, int y) {
+
+        Table t = tables[type.ix];
+
+        int s = popFree(t);
+        if (s == NONE) {
+            if (t.slots == IndexUtil.MAX_SLOTS) return -1;
+            s = t.slots++;
+            if (s == t.row.length) {
+                t.row = Arrays.copyOf(t.row, 2*s);
+                t.gen = Arrays.copyOf(t.gen, 2*s);
+            }
+        }
+
+        if (t.count == t.x.length) {
+            int n = 2*t.count;
+            t.x = Arrays.copyOf(t.x, n);
+            t.y = Arrays.copyOf(t.y, n);
+            t.health = Arrays.copyOf(t.health, n);
+            t.slot = Arrays.copyOf(t.slot, n);
+            t.random = Arrays.copyOf(t.random, n);
+        }
+
+        int id = ux.typeIndex(type, s, t.gen[s]);
+        int r = t.count++;
+        t.x[r] = x;
+        t.y[r] = y;
+        t.health[r] = type.health;
+        t.slot[r] = s;
+        t.random[r] = streams.forEntity(id);
+        t.row[s] = r;
+
+        return id;
+
+    }
+
+    /**
+     * Removes an entity, moving the last of its type into its row. Its id is
+     * stale from then on, and its slot free.
+     * @param id Its id. Nothing happens if it's not alive.
+     */
+    public void kill (int id) {
+
+        Table t = table(id);
+        int r = row(id);
+        if (r == NONE) return;
+
+        int last = --t.count;
+        if (r != last) {
+            t.x[r] = t.x[last];
+            t.y[r] = t.y[last];
+            t.health[r] = t.health[last];
+            t.slot[r] = t.slot[last];
+            t.random[r] = t.random[last];
+            t.row[t.slot[r]] = r;
+        }
+        t.random[last] = null;
+
+        free(t, ux.slotOf(id));
+
+    }
+
+    // Whether an id is of a living entity, and not of a dead one whose slot
+    // might have been taken since.
+    public boolean isAlive (int id) {
+        return ux.typeOf(id) >= 0 && row(id) != NONE;
+    }
+
+    public int getX (int id) {
+        return table(id).x[row(id)];
+    }
+
+    public int getY (int id) {
+        return table(id).y[row(id)];
+    }
+
+    public int getHealth (int id) {
+        return table(id).health[row(id)];
+    }
+
+    public void setHealth (int id, int health) {
+        table(id).health[row(id)] = health;
+    }
+
+    // The entity's own stream of random numbers.
+    public SplittableRandom getRandom (int id) {
+        return table(id).random[row(id)];
+    }
+
+    public void moveTo (int id, int x, int y) {
+        Table t = table(id);
+        int r = row(id);
+        t.x[r] = x;
+        t.y[r] = y;
+    }
+
+    // How many of a type are alive, which is also how many rows it has.
+    public int count (EntType type) {
+        return tables[type.ix].count;
+    }
+
+    // The highest slot of a type in use, plus one, give or take some free
+    // ones compact hasn't got to.
+    public int slots (EntType type) {
+        return tables[type.ix].slots;
+    }
+
+    // By row, for going through every entity of a type. Rows run from 0 to
+    // count - 1, and only change order when something is killed.
+    public int xAt (EntType type, int row) {
+        return tables[type.ix].x[row];
+    }
+
+    public int yAt (EntType type, int row) {
+        return tables[type.ix].y[row];
+    }
+
+    public SplittableRandom randomAt (EntType type, int row) {
+        return tables[type.ix].random[row];
+    }
+
+    public int idAt (EntType type, int row) {
+        Table t = tables[type.ix];
+        int s = t.slot[row];
+        return ux.typeIndex(type, s, t.gen[s]);
+    }
+
+    /**
+     * Gives back free slots at the top of a type's table, as far down as the
+     * highest one in use. No entity moves, so no id changes.
+     * @param budget The most slots to give back.
+     * @return How many slots were given back. Less than the budget means the
+     * top slot is in use.
+     */
+    public int trim (EntType type, int budget) {
+
+        Table t = tables[type.ix];
+        int done = 0;
+
+        while (done < budget && t.slots > 0 && t.row[t.slots - 1] == NONE) {
+            t.slots--;
+            done++;
+        }
+
+        return done;
+
+    }
+
+    /**
+     * Gives back free slots at the top of a type's table. A free top slot is
+     * just dropped. A living entity in the top slot is moved down into a free
+     * one, which changes its id, so whoever holds it is told.
+     * @param budget The most slots to give back.
+     * @param renamer Told of every entity moved.
+     * @return How many slots were given back. Less than the budget means the
+     * type is as compact as it gets.
+     */
+    public int compact (EntType type, int budget, Renamer renamer) {
+
+        Table t = tables[type.ix];
+        int done = 0;
+
+        while (done < budget && t.slots > t.count) {
+
+            int top = t.slots - 1;
+            int r = t.row[top];
+            if (r != NONE) {
+                int s = popFree(t);
+                // More slots than entities, and the top one's taken, so
+                // there's a free one below it.
+                int oldId = ux.typeIndex(type, top, t.gen[top]);
+                t.slot[r] = s;
+                t.row[s] = r;
+                t.row[top] = NONE;
+                t.gen[top] = ux.nextGen(t.gen[top]);
+                renamer.renamed(oldId, ux.typeIndex(type, s, t.gen[s]), t.x[r], t.y[r]);
+            }
+            t.slots--;
+            done++;
+
+        }
+
+        return done;
+
+    }
+
+    /**
+     * Empties the store.
+     * @param randomStreams Gives each entity spawned from now on its stream.
+     */
+    public void clear (RandomStreams randomStreams) {
+        streams = randomStreams;
+        for (int t = 0; t < tables.length; t++) tables[t] = new Table();
+    }
+
+    private Table table (int id) {
+        return tables[ux.typeOf(id)];
+    }
+
+    private int row (int id) {
+        Table t = table(id);
+        int s = ux.slotOf(id);
+        return s < t.slots && t.gen[s] == ux.genOf(id) ? t.row[s] : NONE;
+    }
+
+    private void free (Table t, int s) {
+        t.row[s] = NONE;
+        t.gen[s] = ux.nextGen(t.gen[s]);
+        if (t.freeCount == t.free.length) t.free = Arrays.copyOf(t.free, 2*t.freeCount);
+        t.free[t.freeCount++] = s;
+    }
+
+    // A free slot below slots, or NONE if there isn't one on the stack.
+    private int popFree (Table t) {
+        while (t.freeCount > 0) {
+            int s = t.free[--t.freeCount];
+            if (s < t.slots && t.row[s] == NONE) return s;
+        }
+        return NONE;
+    }
+
+}
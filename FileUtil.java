@@ -1,11 +1,273 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Saves and loads levels in a compact binary format.
+ *
+ * A level file holds, in order:
+ *   the magic number 'PSPY' and a format version,
+ *   the floor's X and Y "radii",
+ *   the floor layer, run-length encoded,
+ *   the contents layer, run-length encoded,
+ *   the spawn table.
+ * Each layer is a count of runs followed by (length, value) pairs, covering
+ * the tiles row by row from the bottom left. Only permanent features are
+ * kept in the contents layer -- they have negative codes -- since entities'
+ * codes only mean something to the game that spawned them. The entities go
+ * in the spawn table instead, as (type, x, y) entries.
+ *
+ * Files are read through a read-only memory map, so several processes can
+ * share one, and loading creates no objects per tile.
+ */
 public class FileUtil {
-    
-    private DrawUtil du;
-    
-    public FileUtil (DrawUtil drawUtil) {
+
+    public static final int MAGIC = 0x50535059; // 'PSPY'
+    public static final short VERSION = 1;
+
+    /**
+     * The spawn table type code for the player. Every other entity is stored
+     * as 1 + its EntType's ix.
+     */
+    public static final int SPAWN_PLAYER = 0;
+
+    // Bytes before the floor layer: magic, version, flags and both radii.
+    private static final int HEADER_BYTES = 4 + 2 + 2 + 4 + 4;
+    private static final int SPAWN_BYTES = 1 + 4 + 4;
+
+    private final WorldGrid floor;
+    private final WorldGrid contents;
+    private final DrawUtil du;
+
+    public FileUtil (WorldGrid floor, WorldGrid contents, DrawUtil drawUtil) {
+        this.floor = floor;
+        this.contents = contents;
         du = drawUtil;
     }
-    
-    
-    
+
+    /**
+     * Reads just the size of the level in a file, so a world can be made to
+     * load it into.
+     * @param path The level file.
+     * @return The floor's X and Y "radii".
+     * @throws IOException If the file can't be read or isn't a level.
+     */
+    public static int[] readRadii (Path path) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), HEADER_BYTES));
+            readHeader(buf);
+            return new int[]{buf.getInt(), buf.getInt()};
+        }
+
+    }
+
+    /**
+     * Writes the current floor, the permanent features in contents, and a
+     * spawn table to a file, replacing whatever was there.
+     * @param path The level file.
+     * @param spawns The spawn table, as consecutive (type, x, y) triples.
+     * @throws IOException If the file can't be written.
+     */
+    public void saveLevel (Path path, int[] spawns) throws IOException {
+
+        int floorRuns = countRuns(floor, false);
+        int contentsRuns = countRuns(contents, true);
+        long size = HEADER_BYTES
+                + 4 + 8L*floorRuns
+                + 4 + 8L*contentsRuns
+                + 4 + (long) SPAWN_BYTES*(spawns.length/3);
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+            buf.putInt(MAGIC);
+            buf.putShort(VERSION);
+            buf.putShort((short) 0); // Flags, for later.
+            buf.putInt(floor.getXRad());
+            buf.putInt(floor.getYRad());
+
+            buf.putInt(floorRuns);
+            writeRuns(buf, floor, false);
+            buf.putInt(contentsRuns);
+            writeRuns(buf, contents, true);
+
+            buf.putInt(spawns.length/3);
+            for (int i = 0; i + 2 < spawns.length; i += 3) {
+                buf.put((byte) spawns[i]);
+                buf.putInt(spawns[i+1]);
+                buf.putInt(spawns[i+2]);
+            }
+
+            buf.force();
+
+        }
+
+    }
+
+    /**
+     * Loads a level file into the floor and contents, which must be freshly
+     * made and the size given by readRadii. The floor is drawn through the
+     * DrawUtil, so anything it keeps in step stays that way. Entities aren't
+     * spawned here; that's left to the caller.
+     * @param path The level file.
+     * @return The spawn table, as consecutive (type, x, y) triples.
+     * @throws IOException If the file can't be read, isn't a level, is the
+     * wrong size for this world, or doesn't hold together: runs that don't
+     * cover the layer exactly, an entity's code in the contents, or more
+     * spawns than there's room for.
+     */
+    public int[] loadLevel (Path path) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            readHeader(buf);
+            if (buf.getInt() != floor.getXRad() || buf.getInt() != floor.getYRad())
+                throw new IOException(path + " is not the size of this world.");
+
+            readFloor(buf);
+            readContents(buf);
+
+            int count = buf.getInt();
+            if (count < 0 || count > buf.remaining()/SPAWN_BYTES)
+                throw new IOException(path + " has a spawn table of " + count + " entries.");
+            int[] spawns = new int[3*count];
+            for (int i = 0; i < spawns.length; i += 3) {
+                spawns[i] = buf.get();
+                spawns[i+1] = buf.getInt();
+                spawns[i+2] = buf.getInt();
+            }
+            return spawns;
+
+        } catch (java.nio.BufferUnderflowException e) {
+            throw new IOException(path + " is cut short.", e);
+        }
+
+    }
+
+    private static void readHeader (ByteBuffer buf) throws IOException {
+
+        if (buf.remaining() < HEADER_BYTES || buf.getInt() != MAGIC)
+            throw new IOException("Not a level file.");
+        short version = buf.getShort();
+        if (version != VERSION)
+            throw new IOException("Level file version " + version + " isn't supported.");
+        buf.getShort(); // Flags.
+
+    }
+
+    // Draws the floor's runs, a row at a time. Zero runs are already there.
+    private void readFloor (ByteBuffer buf) throws IOException {
+
+        int w = floor.getWidth();
+        int tiles = w*floor.getHeight();
+        int runs = readRunCount(buf);
+        int i = 0;
+        int brush = du.getBrush();
+
+        for (int r = 0; r < runs; r++) {
+            int length = readRunLength(buf, tiles - i), value = buf.getInt();
+            if (value != 0) {
+                du.changeBrush(value);
+                for (int start = i, end = i + length; start < end; ) {
+                    int iy = start / w, ix = start % w;
+                    int last = Math.min(end - 1, iy*w + w - 1) % w;
+                    du.drawWallHorizontal(floor.iCy(iy), floor.iCx(ix), floor.iCx(last));
+                    start += last - ix + 1;
+                }
+            }
+            i += length;
+        }
+        du.changeBrush(brush);
+        // Whoever holds du gets their brush back.
+        if (i != tiles) throw new IOException("The floor layer's runs cover " + i + " of " + tiles + " tiles.");
+
+    }
+
+    private void readContents (ByteBuffer buf) throws IOException {
+
+        int w = contents.getWidth();
+        int tiles = w*contents.getHeight();
+        int runs = readRunCount(buf);
+        int i = 0;
+
+        for (int r = 0; r < runs; r++) {
+            int length = readRunLength(buf, tiles - i), value = buf.getInt();
+            if (value > 0) throw new IOException("The contents layer holds an entity's code, " + value + ".");
+            // Only permanent features are saved; see saveLevel.
+            if (value != 0) for (int j = i; j < i + length; j++) contents.set(j % w, j / w, value);
+            i += length;
+        }
+        if (i != tiles) throw new IOException("The contents layer's runs cover " + i + " of " + tiles + " tiles.");
+
+    }
+
+    // A layer's count of runs, each of which takes 8 bytes.
+    private static int readRunCount (ByteBuffer buf) throws IOException {
+        int runs = buf.getInt();
+        if (runs < 0 || runs > buf.remaining()/8) throw new IOException("A layer has " + runs + " runs.");
+        return runs;
+    }
+
+    // A run's length, which can't be negative or go past the layer's end.
+    private static int readRunLength (ByteBuffer buf, int left) throws IOException {
+        int length = buf.getInt();
+        if (length < 0 || length > left) throw new IOException("A run of " + length + " tiles, with " + left + " left.");
+        return length;
+    }
+
+    /**
+     * Counts the runs of equal tiles in a layer, in file order.
+     * @param permanentOnly Whether to count everything but negative codes as 0.
+     */
+    private static int countRuns (WorldGrid layer, boolean permanentOnly) {
+
+        int runs = 0;
+        int prev = 0;
+        boolean first = true;
+
+        for (int iy = 0; iy < layer.getHeight(); iy++)
+            for (int ix = 0; ix < layer.getWidth(); ix++) {
+                int v = layer.get(ix, iy);
+                if (permanentOnly && v > 0) v = 0;
+                if (first || v != prev) runs++;
+                prev = v;
+                first = false;
+            }
+
+        return runs;
+
+    }
+
+    private static void writeRuns (ByteBuffer buf, WorldGrid layer, boolean permanentOnly) {
+
+        int prev = 0, length = 0;
+
+        for (int iy = 0; iy < layer.getHeight(); iy++)
+            for (int ix = 0; ix < layer.getWidth(); ix++) {
+                int v = layer.get(ix, iy);
+                if (permanentOnly && v > 0) v = 0;
+                if (length > 0 && v != prev) {
+                    buf.putInt(length);
+                    buf.putInt(prev);
+                    length = 0;
+                }
+                prev = v;
+                length++;
+            }
+
+        if (length > 0) {
+            buf.putInt(length);
+            buf.putInt(prev);
+        }
+
+    }
+
 }
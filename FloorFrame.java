@@ -0,0 +1,82 @@
+/**
+ * One frame of the floor display: what character is shown in each cell, in
+ * what colour and how brightly, packed into one int per cell.
+ *
+ * Cells are row-major from the top left of the screen, so row 0 is the top
+ * of the floor. A cell packs the character in the high 16 bits, a colour
+ * (one of the constants below) in the next 8, and a grey level from 0 to 255
+ * in the low 8 -- 255 for tiles in plain view, less for partly visible ones.
+ * Tiles out of sight are BLANK. The renderers compare frames cell by cell,
+ * so a cell that looks the same always packs to the same int.
+ */
+public class FloorFrame {
+
+    public static final int WHITE = 0;
+    public static final int RED = 1;
+
+    public static final int BLANK = cell(' ', WHITE, 0);
+
+    private int width;
+    private int height;
+    private int[] cells = new int[0];
+
+    public static int cell (char glyph, int colour, int shade) {
+        return glyph << 16 | colour << 8 | shade;
+    }
+
+    public static char glyph (int cell) {
+        return (char) (cell >>> 16);
+    }
+
+    public static int colour (int cell) {
+        return (cell >>> 8) & 0xFF;
+    }
+
+    public static int shade (int cell) {
+        return cell & 0xFF;
+    }
+
+    /**
+     * Draws the floor, with its contents, as seen from wherever the
+     * visibility was worked out.
+     * @param floor The floor.
+     * @param contents What's on it.
+     * @param sight The visibility of every tile on the floor.
+     * @param ug For the characters of floor tiles and objects.
+     */
+    public void draw (WorldGrid floor, WorldGrid contents, VisData sight, GameUtil ug) {
+
+        width = floor.getWidth();
+        height = floor.getHeight();
+        if (cells.length < width*height) cells = new int[width*height];
+
+        int i = 0;
+        for (int y = height - 1; y >= 0; y--)
+            for (int x = 0; x < width; x++) {
+                Vis v = sight.get(x, y);
+                if (v == null || v == Vis.BLOCKED) {
+                    cells[i++] = BLANK;
+                    continue;
+                }
+                int obj = contents.get(x, y);
+                int look = obj != 0 ? ug.objLook(obj) : ug.floorLook(floor.get(x, y));
+                int shade = v == Vis.CLEAR ? 255 : (int) (sight.fraction(x, y) * 255);
+                cells[i++] = look | shade;
+            }
+
+    }
+
+    public int getWidth () {
+        return width;
+    }
+
+    public int getHeight () {
+        return height;
+    }
+
+    // The cell at a column and row, counting rows from the top.
+    public int get (int col, int row) {
+        return cells[row*width + col];
+    }
+
+}
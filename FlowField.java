@@ -0,0 +1,211 @@
+import java.util.Arrays;
+
+/**
+ * How far every tile near a point is from it, walking around walls, so any
+ * number of enemies can head for the point by each stepping to whichever
+ * neighbour is nearer. One breadth-first search serves them all, instead of
+ * a search each.
+ *
+ * Only tiles within radius steps are worked out, and they're held in a
+ * square window of the floor that moves with the point, wrapping around so
+ * it never has to be copied. When the point moves a single tile, from open
+ * floor to open floor, the field isn't rebuilt. Every distance can only have
+ * grown by one, by way of the step back, so all of them go up by one at once
+ * -- they're stored less an offset, and the offset goes up -- and then a
+ * search from the new point only goes where that made something too far.
+ * Behind the point that's nowhere. A jump, a step onto or off a wall, or a
+ * change to the floor, still rebuilds the lot.
+ *
+ * Past the radius, a distance is only ever an overestimate, or unknown.
+ * Only walls are gone around; entities are for whoever moves to deal with.
+ */
+public class FlowField {
+
+    // Directions as in EnemyMover: right, up, left, down.
+    private static final int[] DX = {1, 0, -1, 0};
+    private static final int[] DY = {0, 1, 0, -1};
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final WorldGrid floor;
+    private final GameUtil ug;
+    private final int radius;
+
+    // The window, side long, a power of two. Tile (x, y) of the floor is at
+    // ((y & mask) << bits) | (x & mask) while it's within radius of the point.
+    private final int side;
+    private final int bits;
+    private final int mask;
+    private final int[] dist;   // Less offset, or UNREACHED.
+    private int offset = 0;
+
+    // For the searches, by window slot.
+    private final int[] queue;
+
+    private int px;
+    private int py;
+    private long version = -1;
+    private boolean built = false;
+
+    private long rebuilds = 0;
+    private long touched = 0;
+
+    /**
+     * @param floor The floor.
+     * @param gameUtil Says which tiles are clear.
+     * @param radius How many steps from the point are worked out.
+     */
+    public FlowField (WorldGrid floor, GameUtil gameUtil, int radius) {
+
+        this.floor = floor;
+        ug = gameUtil;
+        this.radius = radius;
+
+        side = Integer.highestOneBit(2*radius + 1) << 1;
+        // At least one spare line, so the window can shift into it.
+        bits = Integer.numberOfTrailingZeros(side);
+        mask = side - 1;
+        dist = new int[side*side];
+        queue = new int[side*side];
+
+    }
+
+    /**
+     * Brings the field up to date for where the point is now. Cheap if it
+     * hasn't moved, or has moved one tile between clear ones.
+     */
+    public void update (int x, int y) {
+
+        boolean floorSame = built && version == floor.getVersion();
+        if (floorSame && x == px && y == py) return;
+        if (floorSame && Math.abs(x - px) + Math.abs(y - py) == 1
+                && ug.tileClear(px, py) && ug.tileClear(x, y)) step(x, y);
+        else rebuild(x, y);
+        // From or to a wall, the old distances say nothing about the new.
+
+    }
+
+    /**
+     * The direction to step in from a tile to get nearer the point.
+     * @return An index into right, up, left, down; or -1 if the tile is at
+     * the point, or out of reach, or every neighbour is as far or further.
+     */
+    public int downhill (int x, int y) {
+
+        int here = distance(x, y);
+        int best = -1;
+        for (int d = 0; d < 4; d++) {
+            int n = distance(x + DX[d], y + DY[d]);
+            if (n < here) {
+                here = n;
+                best = d;
+            }
+        }
+        return best;
+
+    }
+
+    /**
+     * How many steps a tile is from the point.
+     * @return The distance, exact within the radius; or Integer.MAX_VALUE if
+     * the tile is out of reach or outside the window.
+     */
+    public int distance (int x, int y) {
+        if (Math.abs(x - px) > radius || Math.abs(y - py) > radius) return UNREACHED;
+        int v = dist[slot(x, y)];
+        return v == UNREACHED ? UNREACHED : v + offset;
+    }
+
+    public long getRebuilds () {
+        return rebuilds;
+    }
+
+    // How many tiles searches have had to look at, all told.
+    public long getTouched () {
+        return touched;
+    }
+
+    private void rebuild (int x, int y) {
+
+        Arrays.fill(dist, UNREACHED);
+        offset = 0;
+        px = x;
+        py = y;
+        version = floor.getVersion();
+        built = true;
+        rebuilds++;
+
+        if (ug.tileClear(x, y)) spread(x, y);
+
+    }
+
+    // The point has moved to a neighbouring tile, both of them clear.
+    private void step (int x, int y) {
+
+        int dx = x - px, dy = y - py;
+        if (dx != 0) clearColumn(px - dx*radius);
+        else clearRow(py - dy*radius);
+        // The line falling out of the window behind.
+
+        px = x;
+        py = y;
+        offset++;
+        // Everything is now one further, or at least no more than that.
+
+        spread(x, y);
+
+    }
+
+    /**
+     * Breadth-first from the point, lowering any tile that's further than
+     * the way through here makes it. In a fresh window that's all of them.
+     */
+    private void spread (int x, int y) {
+
+        int head = 0, tail = 0;
+        int s = slot(x, y);
+        dist[s] = -offset;
+        queue[tail++] = s;
+
+        while (head != tail) {
+
+            int from = queue[head];
+            head = (head + 1) & (queue.length - 1);
+            touched++;
+
+            int d = dist[from] + offset + 1;
+            if (d > radius) continue;
+
+            int fx = unwrap(from & mask, px), fy = unwrap(from >>> bits, py);
+            for (int k = 0; k < 4; k++) {
+                int nx = fx + DX[k], ny = fy + DY[k];
+                int n = slot(nx, ny);
+                if (dist[n] != UNREACHED && dist[n] + offset <= d) continue;
+                if (!ug.tileClear(nx, ny)) continue;
+                dist[n] = d - offset;
+                queue[tail] = n;
+                tail = (tail + 1) & (queue.length - 1);
+            }
+
+        }
+
+    }
+
+    private int slot (int x, int y) {
+        return ((y & mask) << bits) | (x & mask);
+    }
+
+    // The coordinate within radius of c whose low bits are w.
+    private int unwrap (int w, int c) {
+        return c + (((w - c) & mask) + radius & mask) - radius;
+    }
+
+    private void clearColumn (int x) {
+        for (int i = x & mask; i < dist.length; i += side) dist[i] = UNREACHED;
+    }
+
+    private void clearRow (int y) {
+        Arrays.fill(dist, (y & mask) << bits, ((y & mask) + 1) << bits, UNREACHED);
+    }
+
+}
@@ -0,0 +1,28 @@
+/**
+ * Anything that can work out how much of the floor is visible from a tile.
+ * Implementations fill in a VisData the same way GameUtil.floorVis always has:
+ * CLEAR tiles are fully visible, BLOCKED ones not at all, and PARTIAL ones
+ * carry the visible fraction alongside.
+ */
+public interface FovEngine {
+
+    /**
+     * Computes the visibility of every tile on the floor from one tile.
+     * @param x The viewer's x coordinate.
+     * @param y The viewer's y coordinate.
+     * @param out Receives the visibility of each tile, by floor index rather
+     * than coordinates. Resized and overwritten, so it can be reused from
+     * turn to turn.
+     */
+    public void floorVis (int x, int y, VisData out);
+
+    /**
+     * Computes the visibility of the tiles within a limit from one tile, and
+     * only those. Everything outside the limit comes out BLOCKED, and ought
+     * to cost nothing beyond that.
+     * @param limit How far and which way the viewer can see. ViewLimit.NONE
+     * gives the same as floorVis without one.
+     */
+    public void floorVis (int x, int y, ViewLimit limit, VisData out);
+
+}
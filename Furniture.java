@@ -1,10 +0,0 @@
-public class Furniture extends GameEntity {
-    
-    private int health = 50;
-    
-    public Furniture (int x, int y) {
-        super (x, y);
-        
-    }
-    
-}
@@ -31,46 +31,54 @@
  * Boolean line-of-sight.
  * Superior boolean line-of-sight -- realistic. No range.
  * Integrated line-of-sight with the display to reflect it. (No optimization)
+ * Pluggable field of view, with shadow-casting in place of the ring walk.
+ * A tile view drawn from pre-drawn glyphs, redrawing only what changed.
+ * A terminal view for headless play, writing only what changed.
+ * A headless engine that never touches AWT, for simulating turns in bulk.
+ * One thread running turns from a queue, instead of a thread per key.
+ * Enemy moves decided in parallel, then resolved in a fixed order.
+ * A spatial index for finding the entities near a point.
+ * Entities kept in columns by type, with dead slots reused.
+ * Generational entity ids, and cleaning a little at a time instead of all at once.
+ * Pathfinding around walls, with the paths found kept for whoever comes next.
+ * Enemies able to close in on the player, from one shared map of the way there.
+ * Line-of-sight from one tile to many at once.
+ * Line-of-sight read from templates worked out once for each offset.
+ * Fields of view limited by distance and facing, costing only what's inside.
+ * Walls drawn a run at a time, in edits that report the rectangle they touched.
+ * Levels generated from a seed, as many as wanted, in parallel.
+ * A world seed, and a stream of random numbers from it for every entity.
  */
 
-import java.awt.BorderLayout;
-import java.awt.Color;
-import java.awt.Dimension;
-import java.awt.Font;
-import java.awt.event.KeyEvent;
-import java.awt.event.KeyListener;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.swing.*;
 
-public class GameShell implements KeyListener {
+public class GameShell {
     
     public static final Scanner keyboardInput = new Scanner(System.in);
     
     /**
-     * The "radius" of the floor in the X direction -- its width in each direction
-     * from the center. Always leads to an odd number of tiles.
+     * The "radius" of the floor the game starts with in the X direction -- its
+     * width in each direction from the center. Always leads to an odd number
+     * of tiles. The floor actually in play can be any size; see newWorld.
      */
-    public static final int floorXRad = 10;
+    public static final int defaultXRad = 10;
     /**
-     * The "radius" of the floor in the Y direction -- its height in each direction
-     * from the center. Always leads to an odd number of tiles' height.
+     * The "radius" of the starting floor in the Y direction -- its height in
+     * each direction from the center. Always leads to an odd number of tiles' height.
      */
-    public static final int floorYRad = 10;
-    
-    /**
-     * The actual width of the floor. Calculated from floorXRad to avoid
-     * stupid contradictions.
-     */
-    private static final int floorWidth = 2*floorXRad + 1;
-    
+    public static final int defaultYRad = 10;
     /**
-     * The actual height of the floor.
+     * The "radius" each way of a level generated with --gen. Big enough for
+     * a dozen or so rooms.
      */
-    public static final int floorHeight = 2*floorYRad + 1;
+    public static final int GEN_RAD = 32;
     
     /**
      * Holds all information about the current contents of the floor, including
@@ -83,131 +91,163 @@ public class GameShell implements KeyListener {
      * coexist with what's below, and in some cases interact with it; permawalls,
      * which at this point are considered part of the floor, block movement of
      * entities, which are universally on the contents level at this time.
+     * 
+     * Both are WorldGrids, sized when the world is made and only allocated
+     * where something has been put, and both handle their own coordinates.
      */
-    private static final int[][] floor = new int[floorWidth][floorHeight];
-    private static final int[][] contents = new int[floorWidth][floorHeight];
+    private static WorldGrid floor;
+    private static WorldGrid contents;
     
     /**
-     * Holds the indices of the entities in entities. Serves as an intermediary
-     * between the raw tile data and IDs and the entities themselves, and as a
-     * sort of lookup table. (ixAr is short for index array)
-     * 
-     * This one is a little harder to explain. In contents, which is an int 2D
-     * array, numbers represent the entities. These numbers refer to the positions
-     * of entities in ixAr. Once the numbers have been used to find the entity's
-     * associated number here, the result is the index of the entity in the less
-     * organized, more all-inclusive array called 'entities'.
-     * 
-     * The entities themselves all have coordinates, so they can refer back to
-     * contents if necessary. Contents -> ixAr -> entities -> the entity -> contents.
-     * I'd propose that the entities themselves have their own ixAr IDs.
+     * Decides everything random about a world: every entity's stream of
+     * random numbers is worked out from it and the entity's id. Takes
+     * effect from the next world started.
      */
-    private static final ArrayList<Integer> ixAr = new ArrayList<>();
+    private static long worldSeed = 0;
     
     /**
-     * Holds the entities themselves in order of spawning in the game.
-     * At the moment has no support for removed entities, as this will disrupt
-     * the ixAr. Failing to support this will cause memory leakage, while doing
-     * so will require integration of ixAr and entities with some new subclass
-     * of ArrayList that keeps a child list updated.
-     * 
-     * The position of an entity in entities has no necessary correlation with
-     * its position in ixAr, so removing an entity from entities would have to
-     * consist of telling each one where to tell ixAr it now resides.
-     * 
-     * This is one of those tasks that it makes more sense to perform occasionally
-     * rather than constantly. I should figure out how often.
-     */
-    private static final ArrayList<GameEntity> entities = new ArrayList<>();
-    
-    /**
-     * The number of distinct types of entities. This one is also a little
-     * weird. IxAr is organized. It's prepared for any quantity of any type of
-     * entity, but adds this space dynamically, on an as-needed basis.
-     * It does so, after a few reserved slots for special entities like the player,
-     * by taking the number of entity types n, and placing new entities of a given
-     * type every n indices, while leaving the n-1 spaces in between empty for
-     * any other entities that need to be recorded.
-     * It's technically not the most space-efficient method, but allows for quick
-     * and simple manipulation of entity-related data on a turn-by-turn basis --
-     * do a simple mod test for entity type, shift entities of a certain type into
-     * the place formerly taken by a deleted one by reducing their indices all by
-     * a set quantity (n). Access all entities of a certain type by index based
-     * only on how many there are. Etc.
-     * 
-     * It's not perfect -- there are arguments for forgoing this organizational
-     * system and abolishing ixAr.
+     * Every entity but the player. In contents, numbers above 1 are entity
+     * ids, which say what type the entity is, which slot of that type's table
+     * it holds, and the slot's generation -- see IndexUtil. The store keeps
+     * each type's entities in dense columns of x, y and health, so going
+     * through all the enemies is a walk down a couple of arrays, and spawning
+     * and killing are constant time. An id stops being alive when its entity
+     * dies, even once the slot has been given to another.
      */
-    private static final int numEntTypes = 2;
+    private static final EntityStore store;
     
     /**
-     * The numbers of indices held by each entity type.
-     * If this reads 2, 5, there are two Enemy entities and five Furniture entities.
-     * However, it's phrased in terms of indices held because it counts indices
-     * still held after death or destruction or other deletion. I.e., as yet to
-     * be cleaned up.
+     * How many unused slots of each type cleanEntities gives back in a turn.
+     * Only ones above every living entity go, so nothing is moved and every
+     * id held stays good.
      */
-    private static final int[] entIndices = new int[numEntTypes];
+    private static final int CLEAN_BUDGET = 16;
     
     /**
-     * The number of indices held by special entities.
-     * Correspondingly, the starting point for the rest of the indices.
+     * Puts the new ids of entities moved by compacting into contents and the
+     * index.
      */
-    private static final int startIndex = 2;
+    private static final EntityStore.Renamer renamer = new EntityStore.Renamer() {
+        @Override
+        public void renamed (int oldId, int newId, int x, int y) {
+            contents.setAt(x, y, newId);
+            nearby.remove(oldId);
+            nearby.insert(newId, x, y);
+        }
+    };
+    
+    /**
+     * The number of distinct types of entities. Ids are handed out so that
+     * after a few reserved ones for special entities like the player, every
+     * n-th belongs to the same type, where n is this number -- so the type of
+     * an entity is a simple mod test on its id, and the slot within its type
+     * is a division.
+     */
+    private static final int numEntTypes = 2;
     
     /**
-     * Keeps track of indices in entities freed by killing their occupants.
-     * Contrary to the name, deceased doesn't keep track of the indices of the
-     * deceased any longer than it takes to give them to something else. This
-     * partially counteracts the effects of the lack of cleanup that happens in
-     * the entities list. I reuse, but don't recycle, so to speak.
+     * The number of ids held by special entities.
+     * Correspondingly, the starting point for the rest of the ids.
      */
-    private static final ArrayList<Integer> deceased = new ArrayList<>();
+    private static final int startIndex = 2;
     
     private static GameEntity player = null;
     // Initialize this so that if the player spawning fails, the null comparison
     // can be made that'll shut the program down.
     
-    private static boolean inTurn = false;
-    // This is for preventing multiple turns from happening simultaneously -- each
-    // one takes a nonzero amount of time, and sometimes there are spikes. If the
-    // user is holding down a key, they might try to start a turn before the last
-    // one finished.
+    private static TurnExecutor turns = null;
+    // Runs the turns for keys and typed moves, one at a time and in order, on
+    // a thread of its own. Null when simulating, which calls step directly.
+    
+    private static GameUtil ug;
+    private static DrawUtil ud;
+    private static final IndexUtil ux = new IndexUtil(numEntTypes, startIndex);
+    
+    static {
+        store = new EntityStore(ux, new RandomStreams(worldSeed));
+    }
+    private static LosUtil ul;
+    private static FileUtil uf;
+    private static EnemyMover mover;
+    
+    /**
+     * Finds the way around the walls for anything that wants to get somewhere.
+     * A search gives up after PATH_BUDGET tiles, so a far or walled-off goal
+     * costs no more than that. Only stepToward uses it, and nothing in a
+     * turn calls that yet: enemies closing in on the player share toPlayer
+     * instead, which is one search for all of them.
+     */
+    private static Pathfinder paths;
+    private static final int PATH_BUDGET = 4096;
+    private static final int PATH_CACHE = 1 << 14;
     
     /**
-     * The "main frame" of the program, holding all graphical information.
+     * How far every tile near the player is from it, for enemies closing in.
+     * Brought up to date once a turn, at the most.
      */
-    private static final JFrame mainFrame = new JFrame("Psy Spy");
+    private static FlowField toPlayer;
+    private static final int CHASE_RADIUS = 64;
+    
+    /**
+     * Where every entity is, bucketed by area, for finding the ones near a
+     * point. Kept up to date by spawning, moving, killing and cleaning.
+     */
+    private static SpatialIndex nearby;
+    
+    /**
+     * The walls again, one bit to a tile. DrawUtil writes it alongside floor,
+     * and GameUtil reads it instead, so line-of-sight touches far less memory
+     * and can check whole runs of tiles at once.
+     */
+    private static WallBits walls;
+    
     /**
-     * The label that holds all the "graphics" at the moment.
+     * The floor and contents again when the world is paged (see
+     * newPagedWorld), and null otherwise. The player's surroundings are paged
+     * in as they walk, PAGE_RADIUS tiles each way, and the next stretch in the
+     * direction they're walking is read ahead.
      */
-    private static final JLabel mainText = new JLabel("", SwingConstants.CENTER);
+    private static PagedGrid pagedFloor = null;
+    private static PagedGrid pagedContents = null;
+    private static final int PAGE_RADIUS = 2*WorldGrid.CHUNK;
+    
+    /**
+     * Decides what the player can see. GameUtil's ring walk is still available
+     * as a FovEngine, but shadow-casting only touches the tiles that are seen.
+     * The cache in front means waiting or bumping into things costs nothing.
+     */
+    private static FovEngine fov;
+    
+    /**
+     * What the player could see as of the last printFloor. Refilled every
+     * turn rather than reallocated.
+     */
+    private static final VisData sight = new VisData();
+    
+    /**
+     * How far and which way the player can see. No limit to begin with, so
+     * the whole floor is worked out.
+     */
+    private static ViewLimit playerView = ViewLimit.NONE;
     
-    // Static block that initializes the frame and label.
     static {
-        
-        mainText.setFont(new Font("Courier New", Font.PLAIN, 20));
-        mainText.setForeground(Color.WHITE);
-        // White text
-        
-        mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-        mainFrame.getContentPane().setPreferredSize(new Dimension(floorWidth*24+50, floorHeight*23+50));
-        mainFrame.setResizable(false);
-        // I don't have enough control over Swing to make resizing an attractive
-        // option.
-        mainFrame.getContentPane().setBackground(Color.BLACK);
-        // On a black background
-        mainFrame.getContentPane().add(mainText, BorderLayout.CENTER);
-        
-        mainFrame.setLocationRelativeTo(null);
-        mainFrame.pack();
-        mainFrame.setVisible(true);
-        
+        newWorld(defaultXRad, defaultYRad);
     }
     
-    private static final GameUtil ug = new GameUtil(floor, contents);
-    private static final DrawUtil ud = new DrawUtil(floor, floorWidth, floorHeight);
-    private static final IndexUtil ux = new IndexUtil(numEntTypes, startIndex, entIndices);
+    /**
+     * The floor as the player last saw it, packed a cell to an int, ready for
+     * whatever is showing it. Refilled every turn rather than reallocated.
+     */
+    private static final FloorFrame view = new FloorFrame();
+    
+    /**
+     * Where the floor is shown: a GameWindow, an AnsiView on the terminal, or
+     * nothing when simulating, in which case the floor isn't drawn at all.
+     * Nothing here touches AWT unless a GameWindow is made, so the game can
+     * run on a box where it doesn't work. Volatile, since it's set on the
+     * main thread and read on the turn executor's.
+     */
+    private static volatile Display display = null;
     
     // These are instances of utility classes that I'm passing mostly private static
     // variables -- I don't want just anyone to be able to access these critical
@@ -219,16 +259,277 @@ public class GameShell implements KeyListener {
     ////////////////////////
     
     /**
-     * Holds the actual main actions to be performed. Will become sort of
-     * superfluous, considering the JFrame works independently and can respond
-     * to events.
-     * @param args the command line arguments, which I will never use. Ever.
+     * Starts the game in one of four modes, chosen by the first argument:
+     *   (none)      In a window, or on the terminal if there's no display.
+     *   --term      On the terminal, without touching AWT at all.
+     *   --gen SEED  As with none, but on a level generated from the seed,
+     *               or from the world seed as it stands if none is given.
+     *   --sim N     Runs N turns of random moves as fast as possible with
+     *               nothing shown, and reports turns per second. Adding
+     *               --render draws every turn's frame anyway.
+     * On a terminal, moves are typed as lines of wasd, or . to wait.
+     * @param args the command line arguments.
      */
     public static void main (String[] args) {
         
-        GameShell shellInstance = new GameShell();
-        mainFrame.addKeyListener(shellInstance);
+        String mode = args.length > 0 ? args[0] : "";
+        
+        if (mode.equals("--gen")) {
+            long seed = args.length > 1 ? Long.parseLong(args[1]) : worldSeed;
+            if (!startGeneratedLevel(GEN_RAD, GEN_RAD, seed)) return;
+        } else if (!startLevel()) return;
+        
+        if (mode.equals("--sim")) {
+            long turns = args.length > 1 ? Long.parseLong(args[1]) : 1000000L;
+            boolean render = args.length > 2 && args[2].equals("--render");
+            double rate = simulate(turns, render, 0L);
+            System.out.printf("%d turns, %.1f turns/s%n", turns, rate);
+            return;
+        }
+        
+        if (!mode.equals("--term") && !java.awt.GraphicsEnvironment.isHeadless()) {
+            turns = new TurnExecutor(16);
+            display = new GameWindow(drawFloor());
+            return;
+        }
+        // The only mention of AWT outside GameWindow, and only reached here.
+        // Keys can come in as soon as the window is up, so the executor is
+        // made first, and the first floor drawn before any turn can draw one.
+        
+        display = new AnsiView(System.out);
+        printFloor();
+        turns = new TurnExecutor(16);
+        
+        while (keyboardInput.hasNextLine()) {
+            for (char c : keyboardInput.nextLine().toCharArray()) {
+                switch (c) {
+                    case 'w': submit(Move.UP, false); break;
+                    case 'a': submit(Move.LEFT, false); break;
+                    case 's': submit(Move.DOWN, false); break;
+                    case 'd': submit(Move.RIGHT, false); break;
+                    case '.': submit(Move.WAIT, false); break;
+                    default:
+                }
+            }
+        }
+        
+        try {
+            turns.shutdown();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        //System.exit(0);
+        
+    }
+    // display, turns, keyboardInput
+    
+    /**
+     * Builds the one hand-made level and puts the player and the first few
+     * entities into it.
+     * @return Whether the player could be spawned.
+     */
+    public static boolean startLevel () {
+        
+        buildLevel();
+        
+        spawnPlayer(0, 0);
+        if (player == null) return false;
+        
+        spawnEntity(EntType.ENEMY, -3, -2);
+        spawnEntity(EntType.ENEMY, 1, 3);
+        spawnEntity(EntType.ENEMY, 1, 4);
+        killEntity(4);
+        cleanEntities();
+        
+        // SpawnEntity's arguments are entity type and coordinates.
+        
+        spawnEntity(EntType.FURNITURE, 0, 2);
+        spawnEntity(EntType.FURNITURE, -2, 1);
+        spawnEntity(EntType.FURNITURE, -3, -4);
         
+        return true;
+        
+    }
+    // player
+    
+    /**
+     * Starts a fresh world and generates a level into it from a seed, with
+     * the player and everything else spawned where it says.
+     * @param xRad The new floor's "radius" in the X direction.
+     * @param yRad The new floor's "radius" in the Y direction.
+     * @param seed Decides the level, and is the world seed from then on. The
+     * same seed always makes the same one.
+     * @return Whether the player could be spawned.
+     */
+    public static boolean startGeneratedLevel (int xRad, int yRad, long seed) {
+        
+        worldSeed = seed;
+        newWorld(xRad, yRad);
+        
+        ud.begin();
+        int[] spawns = new LevelGen(xRad, yRad).generate(seed, floor, ud);
+        ud.commit();
+        spawnAll(spawns);
+        
+        return player != null;
+        
+    }
+    // worldSeed, floor, ud, player
+    
+    /**
+     * Sets the seed the next world's random numbers come from. The same seed
+     * and the same moves play out the same way, however many threads the
+     * enemies are moved on.
+     */
+    public static void setSeed (long seed) {
+        worldSeed = seed;
+    }
+    // worldSeed
+    
+    public static long getSeed () {
+        return worldSeed;
+    }
+    // worldSeed
+    
+    /**
+     * Runs turns back to back, with random moves for the player, and times
+     * them. Whatever display there is is left out; if render is set, the
+     * floor is still drawn every turn, as it would be for one.
+     * @param turns How many turns to run.
+     * @param render Whether to draw the floor every turn.
+     * @param seed Picks the player's moves.
+     * @return Turns per second.
+     */
+    public static double simulate (long turns, boolean render, long seed) {
+        
+        Move[] moves = Move.values();
+        Random rand = new Random(seed);
+        Display shown = display;
+        display = null;
+        
+        long start = System.nanoTime();
+        for (long t = 0; t < turns; t++) {
+            step(moves[rand.nextInt(moves.length)]);
+            if (render) drawFloor();
+        }
+        long end = System.nanoTime();
+        
+        display = shown;
+        return turns * 1e9 / Math.max(1, end - start);
+        
+    }
+    // display
+    
+    /**
+     * Throws away the current level and everything on it, and starts an empty
+     * one of the given size.
+     * @param xRad The new floor's "radius" in the X direction.
+     * @param yRad The new floor's "radius" in the Y direction.
+     */
+    public static void newWorld (int xRad, int yRad) {
+        
+        closePages();
+        startWorld(new WorldGrid(xRad, yRad), new WorldGrid(xRad, yRad));
+        
+        walls = new WallBits(floor.getWidth(), floor.getHeight());
+        ud.setWalls(walls);
+        ug.setWalls(walls);
+        
+    }
+    // floor, walls, ud, ug
+    
+    /**
+     * Like newWorld, but for worlds too big to keep in memory. The floor and
+     * contents are paged to and from files in a directory, a chunk at a time,
+     * with only so much of them held at once. There are no WallBits, which
+     * would be as big as the world; line-of-sight reads the floor instead.
+     * @param xRad The new floor's "radius" in the X direction.
+     * @param yRad The new floor's "radius" in the Y direction.
+     * @param dir Where to keep the files. Any left there from before are
+     * taken up again.
+     * @param budgetBytes How much memory each layer's chunks can take up.
+     * @throws IOException If the files can't be opened.
+     */
+    public static void newPagedWorld (int xRad, int yRad, Path dir, long budgetBytes) throws IOException {
+        
+        closePages();
+        pagedFloor = new PagedGrid(xRad, yRad, dir.resolve("floor.chunks"), budgetBytes);
+        pagedContents = new PagedGrid(xRad, yRad, dir.resolve("contents.chunks"), budgetBytes);
+        startWorld(pagedFloor, pagedContents);
+        walls = null;
+        
+    }
+    // pagedFloor, pagedContents, walls
+    
+    private static void startWorld (WorldGrid f, WorldGrid c) {
+        
+        floor = f;
+        contents = c;
+        
+        ug = new GameUtil(floor, contents);
+        ud = new DrawUtil(floor);
+        ul = new LosUtil(ug);
+        uf = new FileUtil(floor, contents, ud);
+        nearby = new SpatialIndex(floor, ux, 4);
+        mover = new EnemyMover(store, floor, ug, ForkJoinPool.commonPool());
+        paths = new Pathfinder(floor, ug, PATH_BUDGET, PATH_CACHE);
+        toPlayer = new FlowField(floor, ug, CHASE_RADIUS);
+        fov = new CachedFov(new ShadowCastFov(floor), floor, 8);
+        
+        store.clear(new RandomStreams(worldSeed));
+        player = null;
+        
+    }
+    // floor, contents, ug, ud, ul, uf, nearby, mover, paths, toPlayer, fov, store, worldSeed, player
+    
+    // Writes back and closes the files behind a paged world, if this is one.
+    private static void closePages () {
+        
+        try {
+            if (pagedFloor != null) pagedFloor.close();
+            if (pagedContents != null) pagedContents.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            pagedFloor = null;
+            pagedContents = null;
+        }
+        
+    }
+    // pagedFloor, pagedContents
+    
+    
+    public static int getFloorXRad () {
+        return floor.getXRad();
+    }
+    
+    public static int getFloorYRad () {
+        return floor.getYRad();
+    }
+    
+    public static int getFloorWidth () {
+        return floor.getWidth();
+    }
+    
+    public static int getFloorHeight () {
+        return floor.getHeight();
+    }
+    
+    public static TurnExecutor getTurns () {
+        return turns;
+    }
+    
+    public static void setDisplay (Display d) {
+        display = d;
+    }
+    
+    /**
+     * Draws the walls of the one hand-made level.
+     */
+    public static void buildLevel () {
+        
+        ud.begin();
         ud.farWalls();
         ud.drawWallVertical(-1, -2, 5);
         ud.drawWallHorizontal(-2, -1, 3);
@@ -244,29 +545,72 @@ public class GameShell implements KeyListener {
         ud.drawWallHorizontal(-8, -8, -7);
         ud.drawWallVertical(-5, -8, -7);
         ud.drawWallHorizontal(-5, -5, -6);
+        ud.commit();
         
-        spawnPlayer(0, 0);
-        if (player == null) return;
+    }
+    // ud
+    
+    /**
+     * Saves the level as it stands -- walls, permanent features, and where
+     * the player and every living entity are -- to a level file.
+     * @param path The file to write.
+     * @throws IOException If it can't be written.
+     */
+    public static void saveLevel (Path path) throws IOException {
         
-        spawnEntity(EntType.ENEMY, -3, -2);
-        spawnEntity(EntType.ENEMY, 1, 3);
-        spawnEntity(EntType.ENEMY, 1, 4);
-        killEntity(4);
-        cleanEntities();
+        int living = player == null ? 0 : 1;
+        for (EntType type : EntType.values()) living += store.count(type);
         
-        // SpawnEntity's arguments are entity type and coordinates.
+        int[] spawns = new int[3*living];
+        int n = 0;
+        if (player != null) {
+            spawns[n++] = FileUtil.SPAWN_PLAYER;
+            spawns[n++] = player.getX();
+            spawns[n++] = player.getY();
+        }
+        for (EntType type : EntType.values())
+            for (int r = 0; r < store.count(type); r++) {
+                spawns[n++] = 1 + type.ix;
+                spawns[n++] = store.xAt(type, r);
+                spawns[n++] = store.yAt(type, r);
+            }
         
-        spawnEntity(EntType.FURNITURE, 0, 2);
-        spawnEntity(EntType.FURNITURE, -2, 1);
-        spawnEntity(EntType.FURNITURE, -3, -4);
+        uf.saveLevel(path, spawns);
+        
+    }
+    // player, store, uf
+    
+    /**
+     * Replaces the current level with one from a level file, sized to fit it,
+     * and spawns everything in its spawn table.
+     * @param path The file to read.
+     * @throws IOException If it can't be read or isn't a level file.
+     */
+    public static void loadLevel (Path path) throws IOException {
         
-        shellInstance.printFloor();
+        int[] radii = FileUtil.readRadii(path);
+        newWorld(radii[0], radii[1]);
         
-        while (true);
+        spawnAll(uf.loadLevel(path));
         
-        //System.exit(0);
+    }
+    // uf
+    
+    /**
+     * Spawns everything in a spawn table.
+     * @param spawns Triples of type, x and y, as FileUtil keeps them.
+     */
+    private static void spawnAll (int[] spawns) {
+        
+        EntType[] types = EntType.values();
+        for (int i = 0; i < spawns.length; i += 3) {
+            int type = spawns[i];
+            if (type == FileUtil.SPAWN_PLAYER) spawnPlayer(spawns[i+1], spawns[i+2]);
+            else if (type > 0 && type <= types.length) spawnEntity(types[type - 1], spawns[i+1], spawns[i+2]);
+        }
         
     }
+    // none
     
     public GameShell () {
         
@@ -274,57 +618,47 @@ public class GameShell implements KeyListener {
     }
     
     /**
-     * Executes the actions associated with a single in-game turn.
-     * @param act A char signifying the player's choice of action on that turn.
-     * Some characters may end up prompting the user for further input, like
-     * choice of target.
+     * Runs one turn: the player's move, everyone else's, and the floor shown
+     * if there's anywhere to show it. Enemies near the player close in on it,
+     * and the rest wander; with no player, they all wander. Doesn't check
+     * whether another turn is already going; the turn executor only ever runs
+     * one at a time.
+     * @param act The player's move.
      */
-    public void gameTurn (Move act) {
+    public static void step (Move act) {
+        
+        switch (act) {
+            case UP: movePlayer(0, 1); break;
+            case LEFT: movePlayer(-1, 0); break;
+            case DOWN: movePlayer(0, -1); break;
+            case RIGHT: movePlayer(1, 0); break;
+            case WAIT: break;
+            default:
+        }
         
-        if (!inTurn) {
-            
-            inTurn = true;
-            
-            switch (act) {
-                case UP: movePlayer(0, 1); break;
-                case LEFT: movePlayer(-1, 0); break;
-                case DOWN: movePlayer(0, -1); break;
-                case RIGHT: movePlayer(1, 0); break;
-                case WAIT: break;
-                default:
-            }
-
-            enemiesRandMove();
-            printFloor();
-            
-            /*try {Thread.sleep(15L);
-            } catch (InterruptedException e) {
-            }*/
-            
-            inTurn = false;
-            
-        } else System.out.println("busy");
+        if (player != null) enemiesChase();
+        else enemiesRandMove();
+        cleanEntities(CLEAN_BUDGET);
+        printFloor();
         
     }
     
     /**
-     * Puts the gameTurn method onto a new thread.
-     * This is intended to make sure the measure I put in place to prevent
-     * concurrent turns actually works properly. If I don't use this, despite
-     * the fact that events are technically all on distinct threads, the turns
-     * can start to overlap. Not quite sure why.
-     * @param act 
+     * Queues a move for the turn executor.
+     * @param act The player's move.
+     * @param repeat Whether it comes from a key being held down, in which case
+     * it's dropped if other moves are still waiting.
      */
-    public void threadTurn (final Move act) {
+    public static void submit (Move act, boolean repeat) {
         
-        new Thread(new Runnable() {
-            @Override
-            public void run () {
-                gameTurn(act);
-            }
-        }).start();
+        try {
+            turns.submit(act, repeat);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
         
     }
+    // turns
     
     /**
      * Determines whether or not two squares can see another clearly,
@@ -341,281 +675,116 @@ public class GameShell implements KeyListener {
      * @return 
      */
     public static Vis directLOS (int x1, int y1, int x2, int y2) {
-        
-        if (x1 > x2) {
-            int temp = x2;
-            x2 = x1;
-            x1 = temp;
-            temp = y2;
-            y2 = y1;
-            y1 = temp;
-        }
-        
-        // Switches the coordinate pairs so that p1 is on the left.
-        
-        boolean up = y2 > y1;
-        // Whether p2 is above p1.
-        
-        if (x1 == x2) {
-            if (y1 == y2) return Vis.CLEAR;
-            else for (int inc = up?1:-1, i = y1 + inc; i*inc < y2*inc; i += inc)
-                if (!ug.tileClear(x1, i)) return Vis.BLOCKED;
-            return Vis.CLEAR;
-        } else if (y1 == y2) {
-            for (int i = x1 + 1; i < x2; i++)
-                if (!ug.tileClear(i, y1)) return Vis.BLOCKED;
-            return Vis.CLEAR;
-        // Those were the easy conditions -- if the tiles are horizontally or
-        // vertically aligned with one another, or if they're in fact the same
-        // tile, the preceding conditions will catch that and run simpler tests.
-        } else {
-            
-            int dx = x2 - x1;                   // The horizontal distance.
-            int dy = y2 - y1;                   // The vertical distance (negative if p2 is below)
-            int d = dx + (dy > 0 ? dy : -dy);   // The sum (with absolute value of dy)
-            int k = ug.gcd(dx, dy);
-            
-            // I'm using the gcd to determine how many tiles are precisely
-            // centered on the line between the two being tested.
-            
-            // The k!=1 section basically cuts up the test into several smaller
-            // tests, and checks the interceding tiles that are right on the line.
-            // (not to mention, ends the test prematurely line-of-sight is seen
-            //  to be blocked without testing every subtest)
-            // Then it compiles the results into a single bigger result, and
-            // does the same thing with it that the k==1 section does.
-            
-            // The k==1 section just does the straightforward but intensive version
-            // of the test, because there's no way around it. Dx and dy are
-            // relatively prime.
-            
-            if (k != 1) {
-                int inf = 0, sup = d/k;
-                for (int i = 0; i < k; i++) {
-                    
-                    int ddx = dx/k; // smaller horiz. length
-                    int ddy = dy/k; // smaller vert.  length
-                    
-                    int[] r = utilLOS(x1 + i*ddx, y1 + i*ddy, ddx, ddy, up);
-                    if (r == null) return Vis.BLOCKED; // Just in case.
-                    
-                    inf = r[0] > inf ? r[0] : inf; // Greatest lower bound on occlusion.
-                    sup = r[1] < sup ? r[1] : sup; // Least upper bound, occlusion.
-                    
-                    if (sup - inf < 0) return Vis.BLOCKED;
-                    // If the least upper bound is less than the greatest lower bound,
-                    // that means the interval of line-of-sight doesn't exist.
-                    
-                    // I made it so there had to be less than no way to see through,
-                    // so corners would be visible.
-                    
-                    if (i != 0 && !ug.tileClear(x1 + i*ddx, y1 + i*ddy)) return Vis.BLOCKED;
-                    // If one of the interceding tiles is standing square in the way,
-                    // line-of-sight is blocked by it, regardless of the rest.
-                    
-                }
-                return (sup - inf == d/k) ? Vis.CLEAR : Vis.PARTIAL;
-                // If LOS is not confirmed blocked, it's some form of clear.
-            } else {
-                int[] r = utilLOS(x1, y1, dx, dy, up);
-                int aperture = r[1] - r[0];
-                return (aperture >= 0) ? ((aperture == d) ? Vis.CLEAR : Vis.PARTIAL) : Vis.BLOCKED;
-                // Essentially sup - inf.
-            }
-            
-        }
-        
+        return LosUtil.vis(ul.los(x1, y1, x2, y2));
     }
+    // ul
     
     // Pretty much the same thing, but with fractions.
     public static double fracLOS (int x1, int y1, int x2, int y2) {
-        
-        if (x1 > x2) {
-            int temp = x2;
-            x2 = x1;
-            x1 = temp;
-            temp = y2;
-            y2 = y1;
-            y1 = temp;
-        }
-        
-        boolean up = y2 > y1;
-        
-        if (x1 == x2) {
-            if (y1 == y2) return 1d;
-            else for (int i = y1 + (up?1:-1); up ? i < y2 : i > y2; i += up ? 1 : -1)
-                if (!ug.tileClear(x1, i)) return 0d;
-            return 1d;
-        } else if (y1 == y2) {
-            for (int i = x1 + 1; i < x2; i++)
-                if (!ug.tileClear(i, y1)) return 0d;
-            return 1d;
-        } else {
-            
-            int dx = x2 - x1;
-            int dy = y2 - y1;
-            int d = dx + Math.abs(dy);
-            int k = ug.gcd(dx, dy);
-            
-            if (k != 1) {
-                
-                int inf = 0, sup = d/k;
-                
-                for (int i = 0; i < k; i++) {
-                    
-                    int[] r = utilLOS(x1 + i*dx/k, y1 + i*dy/k, dx/k, dy/k, up);
-                    if (r == null) return 0d;
-                    
-                    inf = r[0] > inf ? r[0] : inf;
-                    sup = r[1] < sup ? r[1] : sup;
-                    
-                    if (sup - inf <= 0) return 0d;
-                    
-                    if (i != 0 && !ug.tileClear(x1 + i*dx/k, y1 + i*dy/k)) return 0d;
-                    
-                }
-                
-                return (double)(sup - inf) / (d/k);
-                
-            } else {
-                int[] r = utilLOS(x1, y1, dx, dy, up);
-                return r[1] - r[0] > 0 ? (double)(r[1] - r[0]) / d : 0d;
-            }
-            
-        }
-        
+        return LosUtil.fraction(ul.los(x1, y1, x2, y2));
     }
-    // u
+    // ul
     
-    public static VisDatum visLOS (int x1, int y1, int x2, int y2) {
-        
-        if (x1 > x2) {
-            int temp = x2;
-            x2 = x1;
-            x1 = temp;
-            temp = y2;
-            y2 = y1;
-            y1 = temp;
-        }
-        
-        boolean up = y2 > y1;
-        
-        int dx = x2 - x1;                   // The horizontal distance.
-        int dy = y2 - y1;                   // The vertical distance (negative if p2 is below)
-        int d = dx + (dy > 0 ? dy : -dy);   // The sum (with absolute value of dy)
-        int k = ug.gcd(dx, dy);
-        
-        if (k != 1) {
-            int inf = 0, sup = d/k;
-            for (int i = 0; i < k; i++) {
-
-                int ddx = dx/k; // smaller horiz. length
-                int ddy = dy/k; // smaller vert.  length
-
-                int[] r = utilLOS(x1 + i*ddx, y1 + i*ddy, ddx, ddy, up);
-                if (r == null) return VisDatum.BLOCKED; // Just in case.
-
-                inf = r[0] > inf ? r[0] : inf; // Greatest lower bound on occlusion.
-                sup = r[1] < sup ? r[1] : sup; // Least upper bound, occlusion.
-
-                if (sup - inf < 0) return VisDatum.BLOCKED;
-                // If the least upper bound is less than the greatest lower bound,
-                // that means the interval of line-of-sight doesn't exist.
-
-                // I made it so there had to be less than no way to see through,
-                // so corners would be visible.
-
-                if (i != 0 && !ug.tileClear(x1 + i*ddx, y1 + i*ddy)) return VisDatum.BLOCKED;
-                // If one of the interceding tiles is standing square in the way,
-                // line-of-sight is blocked by it, regardless of the rest.
-
-            }
-            return (sup - inf == d/k) ? VisDatum.CLEAR : new VisDatum(Vis.PARTIAL, (double)(sup - inf) / (d/k));
-            // If LOS is not confirmed blocked, it's some form of clear.
-        } else {
-            int[] r = utilLOS(x1, y1, dx, dy, up);
-            //System.out.println(Arrays.toString(new int[]{x1, y1, dx, dy}));
-            int aperture = r[1] - r[0];
-            return (aperture >= 0) ? ((aperture == d) ? VisDatum.CLEAR : new VisDatum(Vis.PARTIAL, (double)(r[1] - r[0]) / d)) : VisDatum.BLOCKED;
-            // Essentially sup - inf.
-        }
-        
+    /**
+     * Both of the above at once, without allocating anything.
+     * @return The packed result from LosUtil.los. Unpack it with LosUtil.vis
+     * and LosUtil.fraction.
+     */
+    public static long visLOS (int x1, int y1, int x2, int y2) {
+        return ul.los(x1, y1, x2, y2);
+    }
+    // ul
+    
+    /**
+     * The same from one tile to many, sharing the work between targets in
+     * the same direction. Much faster than asking one at a time when there
+     * are a lot of them, like every enemy that might see the player.
+     * @param xs The x coordinates of the targets.
+     * @param ys Their y coordinates.
+     * @param count How many targets there are.
+     * @param out Gets each target's packed result.
+     * @return How many targets aren't blocked.
+     */
+    public static int visLOS (int x, int y, int[] xs, int[] ys, int count, long[] out) {
+        return ul.losBatch(x, y, xs, ys, count, out);
     }
+    // ul
     
-    // Blah blah number theory.
-    public static int[] utilLOS (int x, int y, int dx, int dy, boolean up) {
+    /**
+     * Finds the entities within a distance of a tile, without going through
+     * all of them.
+     * @param x The x coordinate of the middle.
+     * @param y The y coordinate of the middle.
+     * @param r The distance.
+     * @param type Only entities of this type, or any (the player included) if
+     * null.
+     * @param v Gets the id and coordinates of each one found.
+     * @return How many were found.
+     */
+    public static int entitiesWithin (int x, int y, int r, EntType type, SpatialIndex.Visitor v) {
+        return nearby.withinRadius(x, y, r, type, v);
+    }
+    // nearby
+    
+    // The same for a rectangle, edges included.
+    public static int entitiesWithin (int x1, int y1, int x2, int y2, EntType type, SpatialIndex.Visitor v) {
+        return nearby.withinRect(x1, y1, x2, y2, type, v);
+    }
+    // nearby
+    
+    /**
+     * Moves an entity one step along the shortest way to a tile, going
+     * around walls. Other entities aren't gone around, only waited behind.
+     * For an entity with somewhere of its own to go; nothing in the turn
+     * calls it yet.
+     * @param id The entity's id.
+     * @param x The x coordinate of where it's headed.
+     * @param y The y coordinate of where it's headed.
+     * @return Whether it moved.
+     */
+    public static boolean stepToward (int id, int x, int y) {
         
-        if (!IndexUtil.goodCoords(x, y) || !IndexUtil.goodCoords(x+dx, y+dy)) return null;
+        if (!store.isAlive(id)) return false;
         
-        dy = dy > 0 ? dy : -dy;
-        int d = dx + dy;
-        int sup = d;
-        int inf = 0;
-        int cur = dx;
+        int oldX = store.getX(id), oldY = store.getY(id);
+        int next = paths.nextStep(oldX, oldY, x, y);
+        if (next == -1) return false;
         
-        if (up) while (true) {
-            
-            if (!ug.tileClear(x, y+1)) sup = cur < sup ? cur : sup;
-            if (!ug.tileClear(x+1, y)) inf = cur > inf ? cur : inf;
-            
-            if (cur < dy) {
-                y++;
-                cur += dx;
-            } else if (cur > dy) {
-                x++;
-                cur -= dy;
-            } else break;
-            
-        } else while (true) {
-            
-            if (!ug.tileClear(x, y-1)) sup = cur < sup ? cur : sup;
-            if (!ug.tileClear(x+1, y)) inf = cur > inf ? cur : inf;
-            
-            if (cur < dy) {
-                y--;
-                cur += dx;
-            } else if (cur > dy) {
-                x++;
-                cur -= dy;
-            } else break;
-            
-        }
+        moveEntity(id, paths.tileX(next) - oldX, paths.tileY(next) - oldY);
+        return store.getX(id) != oldX || store.getY(id) != oldY;
+        // Moving fails if someone's in the way.
         
-        //sup = sup == d ? d : sup + 1;
-        // Slight correction in favor of tolerance for seeing around corners.
-        // The draconian line-of-sight calculation before was displaying
-        // technically accurate but practically weird behaviors.
+    }
+    // store, paths
+    
+    /**
+     * Randomly moves all enemies. Where they go is decided all at once, in
+     * parallel, from where everything stood at the start of the turn -- see
+     * EnemyMover -- and then they're moved one by one.
+     */
+    public static void enemiesRandMove () {
         
-        return new int[]{inf, sup};
+        int moves = mover.plan();
+        for (int k = 0; k < moves; k++) moveEntity(mover.getId(k), mover.getDx(k), mover.getDy(k));
         
     }
-    // u
+    // mover
     
     /**
-     * Randomly moves all enemies. Will be outmoded eventually, and will
-     * require fixing after the integration of the various entity indices.
+     * Moves every enemy within CHASE_RADIUS of the player a step closer to
+     * it, around the walls; the rest wander as in enemiesRandMove. The way
+     * to the player is worked out once for all of them -- see FlowField.
      */
-    public static void enemiesRandMove () {
+    public static void enemiesChase () {
         
-        for (int i = 0; i < entIndices[0]; i++) {
-            
-            int index = i*numEntTypes + startIndex;
-            if (ixAr.get(index) == -1) continue;
-            
-            int rand = (int) (Math.random()*4);
-            
-            switch (rand) {
-                case 0: moveEntity(index, 1, 0); break;
-                case 1: moveEntity(index, 0, 1); break;
-                case 2: moveEntity(index, -1, 0); break;
-                case 3: moveEntity(index, 0, -1); break;
-                default:
-            }
-            
-        }
+        if (player == null) return;
+        toPlayer.update(player.getX(), player.getY());
+        
+        int moves = mover.plan(toPlayer);
+        for (int k = 0; k < moves; k++) moveEntity(mover.getId(k), mover.getDx(k), mover.getDy(k));
         
     }
-    // entIndices, numEntTypes, startIndex, ixAr
+    // player, toPlayer, mover
     
     /**
      * Moves the player a particular number of spaces horizontally and
@@ -633,189 +802,154 @@ public class GameShell implements KeyListener {
         if (!ug.tileClear(newCoords)) return;
         if (ug.tileHasObject(newCoords)) return;
         
-        contents[IndexUtil.cIx(player.getX())][IndexUtil.cIy(player.getY())] = 0;
-        contents[IndexUtil.cIx(newCoords[0])][IndexUtil.cIy(newCoords[1])] = 1;
+        contents.setAt(player.getX(), player.getY(), 0);
+        contents.setAt(newCoords[0], newCoords[1], 1);
         player.moveCoords(x, y);
+        nearby.move(1, player.getX(), player.getY());
+        
+        if (pagedFloor != null) {
+            pagedFloor.pageAround(player.getX(), player.getY(), PAGE_RADIUS);
+            pagedContents.pageAround(player.getX(), player.getY(), PAGE_RADIUS);
+            pagedFloor.prefetch(player.getX(), player.getY(), x, y, PAGE_RADIUS);
+            pagedContents.prefetch(player.getX(), player.getY(), x, y, PAGE_RADIUS);
+        }
         
     }
-    // player, contents
+    // player, contents, nearby, pagedFloor, pagedContents
     
     /**
      * Moves a generic entity in the same fashion as movePlayer -- adds
      * a certain vector <x, y> to the entity's position. 
-     * @param id The position of the entity in ixAr. NOT the entity's index in
-     * entities.
+     * @param id The entity's id, as kept in contents.
      * @param x The distance moved to the right.
      * @param y The distance moved upwards.
      */
     public static void moveEntity (int id, int x, int y) {
         
-        GameEntity entity = entities.get(ixAr.get(id));
-        
-        if (entity == null) {
-            System.out.println(id);
-            System.out.println(ixAr.get(id));
-            return;
-        }
+        if (!store.isAlive(id)) return;
         
-        int[] newCoords = new int[]{entity.getX(), entity.getY()};
-        newCoords[0] += x;
-        newCoords[1] += y;
+        int oldX = store.getX(id), oldY = store.getY(id);
+        int newX = oldX + x, newY = oldY + y;
         
-        if (!ug.tileClear(newCoords)) return;
-        if (ug.tileHasObject(newCoords)) return;
+        if (!ug.tileClear(newX, newY)) return;
+        if (ug.tileHasObject(newX, newY)) return;
         // Check that the destination is clear.
         
-        contents[IndexUtil.cIx(entity.getX())][IndexUtil.cIy(entity.getY())] = 0;
-        contents[IndexUtil.cIx(newCoords[0])][IndexUtil.cIy(newCoords[1])] = id;
+        contents.setAt(oldX, oldY, 0);
+        contents.setAt(newX, newY, id);
         
-        entity.moveCoords(x, y);
+        store.moveTo(id, newX, newY);
+        nearby.move(id, newX, newY);
         
     }
-    // Entities, ixAr, contents, u
+    // store, contents, nearby, ug
     
     /**
-     * Removes an entity, replacing its entries in ixAr and entities
-     * with -1 and null, respectively.
+     * Removes an entity, freeing its tile and its id for the next spawned.
      * @param id 
      */
     public static void killEntity (int id) {
         
-        int ix = ixAr.get(id);                  // Index in entities
-        GameEntity entity = entities.get(ix);   // Retrieve the entity itself
+        if (!store.isAlive(id)) return;
         
-        contents[IndexUtil.cIx(entity.getX())][IndexUtil.cIy(entity.getY())] = 0;
+        contents.setAt(store.getX(id), store.getY(id), 0);
         // Empty the tile.
-        entities.set(ix, null);                 // Empty its index.
-        deceased.add(ix);                       // Add it to the deceased.
-        ixAr.set(id, -1);                       // Mark it as deceased in ixAr.
+        store.kill(id);
+        nearby.remove(id);
         
     }
-    // ixAr, entities, contents, deceased
+    // store, contents, nearby
     
+    /**
+     * Gives back the unused slots of every type at once. Never needed --
+     * slots are reused as soon as they're freed -- but it keeps the tables
+     * and the index small after a lot of entities have died. Entities are
+     * moved down into free slots to do it, which gives them new ids, so ids
+     * held from before can read as dead; contents and the index are brought
+     * up to date, but nothing else is. Only for when nobody's holding any,
+     * like between levels.
+     */
     public static void cleanEntities () {
+        for (EntType type : EntType.values()) store.compact(type, Integer.MAX_VALUE, renamer);
+    }
+    // store, renamer
+    
+    /**
+     * Gives back a few unused slots of every type, so a turn never pays for
+     * more than a handful. Only the free slots above the highest in use are
+     * given back; no entity is moved, so an id only goes stale when its
+     * entity is killed.
+     * @param budget The most slots given back for each type.
+     */
+    public static void cleanEntities (int budget) {
+        for (EntType type : EntType.values()) store.trim(type, budget);
+    }
+    // store
+    
+    /**
+     * Swaps the engine that decides what the player can see.
+     * @param engine The new FovEngine. Must be built over the same floor.
+     */
+    public static void setFovEngine (FovEngine engine) {
+        fov = engine;
+    }
+    // fov
+    
+    /**
+     * Limits what the player can see from now on.
+     * @param limit The new limit, or ViewLimit.NONE for none.
+     */
+    public static void setPlayerView (ViewLimit limit) {
+        playerView = limit;
+    }
+    // playerView
+    
+    /**
+     * Works out what an entity can see from where it stands. Only the tiles
+     * inside the limit cost anything, so a short sight radius or a narrow
+     * cone stays cheap however big the floor is.
+     * @param id The entity.
+     * @param limit How far and which way it can see.
+     * @param out Receives what it can see, as for FovEngine.floorVis; or
+     * nothing, every tile BLOCKED, if it isn't alive.
+     */
+    public static void entityVis (int id, ViewLimit limit, VisData out) {
         
-        for (EntType type : EntType.values()) {             // Iterate through types.
-            int k = 0;                                      // Counter for deceased.
-            int index = type.ix;                            // Index of type.
-            {   int ei = entIndices[index];                 // Held indices of this type.
-                for (int j = 0; j < ei; j++) {              // Iterate through held indices.
-                    if (ixAr.get(ux.typeIndex(type, j)) == -1) {
-                        k++;
-                    } else if (k > 0) {
-                        ixAr.set(ux.typeIndex(type, j-k), ixAr.get(ux.typeIndex(type, j)));
-                        // Shift them down.
-                    }
-                }
-                for (int j = ei - k; j < ei; j++) ixAr.set(ux.typeIndex(type, j), null);
-                // Null for unused, instead of simply deceased.
-            }
-            entIndices[index] -= k;
-            // The deceased no longer hold their indices.
-            
-            for (int j = 0; j < entIndices[index]; j++) {
-                int ix = ux.typeIndex(type, j);
-                GameEntity e = entities.get(ixAr.get(ix));
-                contents[IndexUtil.cIx(e.getX())][IndexUtil.cIy(e.getY())] = ix;
-            }
-            // Update the contents array with the new indices of the living.
-            
+        if (!store.isAlive(id)) {
+            out.reset(floor.getWidth(), floor.getHeight());
+            out.fill(Vis.BLOCKED);
+            return;
         }
         
+        fov.floorVis(store.getX(id), store.getY(id), limit, out);
+        
     }
-    // numEntTypes, entIndices, ixAr, ux, entities, contents
-    
-    /**
-     * Generates an HTML representation of the floor and transfers it to mainText.
-     * Don't pay too much attention to this method -- it's sloppy and I'd like
-     * to get rid of this display type as soon as possible. I just haven't found
-     * an acceptable substitute yet.
-     */
-    public void printFloor () {
-        
-        VisData vd = ug.floorVis(player.getX(), player.getY());
-        Vis[][] t = vd.ternary;
-        double[][] f = vd.fractional;
-        
-        String labelOutput = "<html>";
-        
-        for (int y = floorHeight-1; y > -1; y--) {
-            for (int x = 0; x < floorWidth; x++) {
-                String shown;
-                Vis v = t[x][y];
-                switch (v) {
-                    case BLOCKED:
-                        shown = "&nbsp;";
-                        break;
-                    case CLEAR:
-                    case PARTIAL:
-                        shown = ug.tileHasObject(IndexUtil.iCx(x), IndexUtil.iCy(y)) 
-                                ? ug.displayObjChar(contents[x][y])
-                                : ug.displayFloorChar(floor[x][y]);
-                        if (v == Vis.CLEAR) break;
-                        String digit;
-                        {   double visibility = f[x][y];
-                            int vis = (int) (visibility * 255);
-                            digit = Integer.toHexString(vis);
-                            if (digit.length() == 1) digit = "0" + digit;
-                            digit = digit + digit + digit;
-                        }
-                        shown = "<font color='" + digit + "'>" + shown + "</font>";
-                        break;
-                    default: shown = "ERROR";
-                }
-                String inBetween = x == floorWidth-1 ? "" : "&nbsp;";
-                labelOutput += shown + inBetween;
-            }
-            labelOutput += y == 0 ? "" : "<br>";
-        }
+    // fov, store, floor
+    
+    /**
+     * Draws the floor as the player sees it and shows it on the display, if
+     * there is one.
+     */
+    public static void printFloor () {
         
-        /*for (int y = floorYRad; y >= -floorYRad; y--) {
-            
-            for (int x = -floorXRad; x <= floorXRad; x++) {
-                
-                String shown;
-                Vis v = directLOS(player.getX(), player.getY(), x, y);
-                if (v == Vis.BLOCKED) shown = "&nbsp";
-                else if (v == Vis.CLEAR) shown = ug.tileHasObject(x, y) 
-                        ? ug.displayObjChar(contents[IndexUtil.cIx(x)][IndexUtil.cIy(y)])
-                        : ug.displayFloorChar(floor[IndexUtil.cIx(x)][IndexUtil.cIy(y)]);
-                
-                else {
-                    
-                    shown = ug.tileHasObject(x, y) 
-                            ? ug.displayObjChar(contents[IndexUtil.cIx(x)][IndexUtil.cIy(y)])
-                            : ug.displayFloorChar(floor[IndexUtil.cIx(x)][IndexUtil.cIy(y)]);
-                    
-                    String digit;
-                    {   double visibility = fracLOS(player.getX(), player.getY(), x, y);
-                        int vis = (int) (visibility * 255);
-                        if (vis == 0) vis = 45;
-                        digit = Integer.toHexString(vis);
-                        if (digit.length() == 1) digit = "0" + digit;
-                        digit = digit + digit + digit;
-                    }
-                    
-                    shown = "<font color='" + digit + "'>" + shown + "</font>";
-                    
-                }
-                
-                String inBetween = x == floorXRad ? "" : "&nbsp;";
-                
-                labelOutput += shown + inBetween;
-                
-            }
-            
-            labelOutput += y == -floorYRad ? "" : "<br>";
-            
-        }
-        */
+        if (display != null) display.show(drawFloor());
+        
+    }
+    // display
+    
+    /**
+     * Works out what the player can see and draws it into the frame that
+     * printFloor shows.
+     * @return The frame, which is overwritten on the next call.
+     */
+    public static FloorFrame drawFloor () {
         
-        labelOutput += "</html>";
+        fov.floorVis(player.getX(), player.getY(), playerView, sight);
+        view.draw(floor, contents, sight, ug);
+        return view;
         
-        mainText.setText(labelOutput);
     }
-    // FloorXRad, floorYRad, contents, floor, maintext
+    // floor, contents, fov, playerView, sight, view, ug
     
     /**
      * Spawns the player entity.
@@ -826,80 +960,38 @@ public class GameShell implements KeyListener {
         
         if (ug.tileClear(x, y) && !ug.tileHasObject(x, y)) {
             
-            contents[IndexUtil.cIx(x)][IndexUtil.cIy(y)] = 1;
-            ug.expandToSize(ixAr, 2);
-            ixAr.set(1, entities.size());
+            contents.setAt(x, y, 1);
             
             player = new Player(x, y);
-            entities.add(player);
+            nearby.insert(1, x, y);
             
         }
         
     }
-    // contents, ixAr, entities, player, u
+    // contents, player, nearby, ug
     
-    public static void spawnEntity (EntType type, int x, int y) {
+    /**
+     * Spawns an entity of some type onto a clear, empty tile.
+     * @param type The type of entity.
+     * @param x X coordinate.
+     * @param y Y coordinate.
+     * @return The entity's id, or -1 if the tile was taken.
+     */
+    public static int spawnEntity (EntType type, int x, int y) {
         
         if (ug.tileClear(x, y) && !ug.tileHasObject(x, y)) {
         // Tile being spawned into must be clear of permawalls and entities.
             
-            int index = ux.newIndex(type);
-            contents[IndexUtil.cIx(x)][IndexUtil.cIy(y)] = index;
-            ug.expandToSize(ixAr, index+1);
-            // Make sure ixAr is big enough for the incoming entity.
-            
-            if (deceased.size() > 0) {
-                int ix = deceased.get(0);
-                ixAr.set(index, ix);
-                entities.set(ix, ug.newEnt(type, x, y));
-                deceased.remove(0);
-            } else {
-                ixAr.set(index, entities.size());
-                entities.add(ug.newEnt(type, x, y));
-            }
-            // Use deceased indices if possible.
-            
-            entIndices[type.ix]++;
+            int index = store.spawn(type, x, y);
+            contents.setAt(x, y, index);
+            nearby.insert(index, x, y);
+            return index;
             
         }
         
-    }
-    // numEntTypes, contents, ixAr, deceased, entities, entIndices, u
-    
-    /**
-     * Does nothing, but must be overridden for this class to extend KeyListener.
-     * @param e The KeyEvent that triggers this function.
-     */
-    @Override
-    public void keyTyped (KeyEvent e) {
-        
-    }
-    
-    /**
-     * Handles all the responses to keyPresses. Will eventually be replaced
-     * with a better system that does not equate events with turns. This is a disaster
-     * waiting to happen.
-     * @param e The KeyEvent that triggers this function.
-     */
-    @Override
-    public void keyPressed (KeyEvent e) {
-        if (inTurn) return;
-        int keyCode = e.getKeyCode();
-        switch (keyCode) {
-            case 37: threadTurn(Move.LEFT); break;
-            case 38: threadTurn(Move.UP); break;
-            case 39: threadTurn(Move.RIGHT); break;
-            case 40: threadTurn(Move.DOWN); break;
-            case 46: threadTurn(Move.WAIT); break;
-            default:
-        }
-    }
-    // none
-    
-    // Same as keyTyped.
-    @Override
-    public void keyReleased (KeyEvent e) {
+        return -1;
         
     }
+    // store, contents, nearby, ug
     
 }
@@ -1,18 +1,21 @@
-import java.util.ArrayList;
-
-public class GameUtil {
+public class GameUtil implements FovEngine {
     
-    private final int[][] floor;
-    private final int[][] contents;
+    private final WorldGrid floor;
+    private final WorldGrid contents;
     
     private final int width;
     private final int height;
     
-    public GameUtil (int[][] f, int[][] c) {
+    private final LosUtil ul = new LosUtil(this);
+    
+    // The walls one bit to a tile, if there is such a copy. Read in place of floor.
+    private WallBits walls = null;
+    
+    public GameUtil (WorldGrid f, WorldGrid c) {
         floor = f;
         contents = c;
-        width = floor.length;
-        height = floor[0].length;
+        width = floor.getWidth();
+        height = floor.getHeight();
     }
     
     /**
@@ -38,39 +41,40 @@ public class GameUtil {
         
     }
     
-    // Displays the character associated with this int code for an object.
-    public String displayObjChar (int val) {
+    // The character and colour shown for this int code for an object, as a
+    // FloorFrame cell with no shade.
+    public int objLook (int val) {
         switch (val) {
-            case 0: return "&nbsp;";
-            case 1: return "<font color = 'white'>O</font>";
+            case 0: return FloorFrame.cell(' ', FloorFrame.WHITE, 0);
+            case 1: return FloorFrame.cell('O', FloorFrame.WHITE, 0);
             default: switch (val % 2) {
-                case 0: return "<font color='red'>O</font>";
-                default: return "A";
+                case 0: return FloorFrame.cell('O', FloorFrame.RED, 0);
+                default: return FloorFrame.cell('A', FloorFrame.WHITE, 0);
             }
         }
     }
     
-    // Displays the character associated with this int code for a floor tile.
-    public String displayFloorChar (int val) {
+    // The same for this int code for a floor tile.
+    public int floorLook (int val) {
         switch (val) {
-            case 0: return ".";
-            case 1: return "#";
-            default: return "X";
+            case 0: return FloorFrame.cell('.', FloorFrame.WHITE, 0);
+            case 1: return FloorFrame.cell('#', FloorFrame.WHITE, 0);
+            default: return FloorFrame.cell('X', FloorFrame.WHITE, 0);
         }
     }
     
     /** 
      * Returns whether the tile has an entity or other non-ground object on it.
      * (There may be permanent features that are non-floor tiles in the future,
-     * which would have object codes but not correspond to an index in the ixAr.
+     * which would have object codes but not correspond to any entity's id.
      * These may be given negative codes, or merely low-value reserved codes)
      * @param x the x coordinate
      * @param y the y coordinate
      * @return whether the tile contains an object
      */
     public boolean tileHasObject (int x, int y) {
-        if (!IndexUtil.goodCoords(x, y)) return false;
-        return contents[IndexUtil.cIx(x)][IndexUtil.cIx(y)] != 0;
+        if (!contents.goodCoords(x, y)) return false;
+        return contents.getAt(x, y) != 0;
     }
     // contents
     
@@ -79,34 +83,15 @@ public class GameUtil {
         return tileHasObject(coords[0], coords[1]);
     }
     
-    /**
-     * Expands an array to a set size. Eventually use a sort of ArrayList
-     * subclass that does this automagically -- I'd prefer to have an array that
-     * lets me add at arbitrary indices. Maybe have a warning go off if I add
-     * an extremely large value, or if the density is getting low, then I'll
-     * know to refactor the code so it make better use of the space.
-     * @param a The array.
-     * @param size The size.
-     */
-    public void expandToSize (ArrayList a, int size) {
-        while (a.size() < size) a.add(null);
-    }
-    
-    public GameEntity newEnt (EntType type, int x, int y) {
-        switch (type) {
-            case ENEMY: return new Enemy(x, y);
-            case FURNITURE: return new Furniture(x, y);
-            default: return null;
-        }
-    }
-    
     // Returns whether a tile contains a wall.
     // Takes an x and y coordinate.
     public boolean tileClear (int x, int y) {
-        if (!IndexUtil.goodCoords(x, y)) return false;
-        return floor[IndexUtil.cIx(x)][IndexUtil.cIx(y)] == 0;
+        if (walls != null) return !walls.isWall(floor.cIx(x), floor.cIy(y));
+        // WallBits already counts everything off the floor as wall.
+        if (!floor.goodCoords(x, y)) return false;
+        return floor.getAt(x, y) == 0;
     }
-    // floor
+    // floor, walls
     
     // Same as above, but takes an array containing the coordinate pair.
     public boolean tileClear (int[] coords) {
@@ -115,126 +100,180 @@ public class GameUtil {
     }
     // none
     
+    /**
+     * Returns whether a horizontal run of tiles is free of walls. With a
+     * WallBits to read from, this checks 64 tiles at a time.
+     * @param y The y coordinate of the run.
+     * @param x1 The leftmost x coordinate, inclusive.
+     * @param x2 The rightmost x coordinate, inclusive. An empty run is clear.
+     */
+    public boolean rowClear (int y, int x1, int x2) {
+        if (x1 > x2) return true;
+        if (!floor.goodCoords(x1, y) || !floor.goodCoords(x2, y)) return false;
+        if (walls != null) return walls.firstWallInRow(floor.cIy(y), floor.cIx(x1), floor.cIx(x2)) == -1;
+        for (int i = x1; i <= x2; i++) if (!tileClear(i, y)) return false;
+        return true;
+    }
+    // floor, walls
+    
+    // The same, for a vertical run from y1 up to y2.
+    public boolean columnClear (int x, int y1, int y2) {
+        if (y1 > y2) return true;
+        if (!floor.goodCoords(x, y1) || !floor.goodCoords(x, y2)) return false;
+        if (walls != null) return walls.firstWallInColumn(floor.cIx(x), floor.cIy(y1), floor.cIy(y2)) == -1;
+        for (int i = y1; i <= y2; i++) if (!tileClear(x, i)) return false;
+        return true;
+    }
+    // floor, walls
+    
+    /**
+     * Reads walls from a bit-packed copy instead of the floor grid from now
+     * on. Whoever writes to the floor has to keep it up to date.
+     * @param wallBits The copy, or null to go back to reading the floor.
+     */
+    public void setWalls (WallBits wallBits) {
+        walls = wallBits;
+    }
+    
+    // The bit-packed walls, or null if walls are read from the floor.
+    public WallBits getWalls () {
+        return walls;
+    }
+    // walls
+    
+    // Where a tile's bit is in the bit-packed walls. See WallBits.getStride.
+    public int wallBit (int x, int y) {
+        return floor.cIy(y)*walls.getStride() + floor.cIx(x);
+    }
+    // floor, walls
+    
+    // Whether a pair of coordinates is on the floor.
+    public boolean goodCoords (int x, int y) {
+        return floor.goodCoords(x, y);
+    }
+    
+    /**
+     * The original ring-by-ring field of view. Works outwards in squares from
+     * the viewer, settling each tile from its neighbours where it can and
+     * falling back on a full line-of-sight test where it can't. Kept as the
+     * reference that other FovEngines are checked against.
+     */
+    @Override
+    public void floorVis (int x, int y, VisData out) {
+        floorVis(x, y, ViewLimit.NONE, out);
+    }
     
-    public VisData floorVis (int x, int y) {
+    /**
+     * The ring walk, cut down to the box around the limit. Tiles in the box
+     * but outside the limit are passed over, so a tile inside whose
+     * neighbour nearer in wasn't settled goes to line-of-sight instead.
+     */
+    @Override
+    public void floorVis (int x, int y, ViewLimit limit, VisData out) {
         
-        x = IndexUtil.cIx(x);
-        y = IndexUtil.cIy(y);
+        x = floor.cIx(x);
+        y = floor.cIy(y);
+        
+        int top = (int) Math.min(height - 1, (long) y + limit.getMaxDy());
+        int right = (int) Math.min(width - 1, (long) x + limit.getMaxDx());
+        int bottom = (int) Math.max(0, (long) y + limit.getMinDy());
+        int left = (int) Math.max(0, (long) x + limit.getMinDx());
+        // The box, by index, clipped to the floor.
         
         int[] distances = new int[4];
-        distances[0] = height - y - 1;
-        distances[1] = width - x - 1;
-        distances[2] = y;
-        distances[3] = x;
+        distances[0] = top - y;
+        distances[1] = right - x;
+        distances[2] = y - bottom;
+        distances[3] = x - left;
         // Distances measures the distance from the tile specified, not including
-        // the tile itself, to the north, east, south, and west borders, in that order.
+        // the tile itself, to the north, east, south, and west edges of the box,
+        // in that order.
         
-        Vis[][] ternary = new Vis[width][height];
-        double[][] fractional = new double[width][height];
+        out.reset(width, height, left, bottom, right, top, Vis.BLOCKED);
         
         int max = distances[0] + distances[3];
         for (int i = 0; i < 3; i++) max = distances[i] + distances[i+1] > max ? distances[i] + distances[i+1] : max;
         
-        ternary[x][y] = Vis.CLEAR;
+        out.set(x, y, Vis.CLEAR);
         boolean[] inBounds = new boolean[4];
         
         for (int radius = 1; radius <= max; radius++) {
             for (int d = 0; d < 4; d++) inBounds[d] = radius <= distances[d];
-            if (inBounds[0]) ternary[x][y+radius] = openFloor(ternary, floor, x, y+radius-1)
-                    ? Vis.CLEAR : Vis.BLOCKED;
-            if (inBounds[1]) ternary[x+radius][y] = openFloor(ternary, floor, x+radius-1, y)
-                    ? Vis.CLEAR : Vis.BLOCKED;
-            if (inBounds[2]) ternary[x][y-radius] = openFloor(ternary, floor, x, y-radius+1)
-                    ? Vis.CLEAR : Vis.BLOCKED;
-            if (inBounds[3]) ternary[x-radius][y] = openFloor(ternary, floor, x-radius+1, y)
-                    ? Vis.CLEAR : Vis.BLOCKED;
-            // Checks the midpoints of each side of the widening square.
+            if (inBounds[0] && limit.contains(0, radius)) out.set(x, y+radius,
+                    openFloor(out, floor, x, y+radius-1) ? Vis.CLEAR : Vis.BLOCKED);
+            if (inBounds[1] && limit.contains(radius, 0)) out.set(x+radius, y,
+                    openFloor(out, floor, x+radius-1, y) ? Vis.CLEAR : Vis.BLOCKED);
+            if (inBounds[2] && limit.contains(0, -radius)) out.set(x, y-radius,
+                    openFloor(out, floor, x, y-radius+1) ? Vis.CLEAR : Vis.BLOCKED);
+            if (inBounds[3] && limit.contains(-radius, 0)) out.set(x-radius, y,
+                    openFloor(out, floor, x-radius+1, y) ? Vis.CLEAR : Vis.BLOCKED);
+            // Checks the midpoints of each side of the widening square. The
+            // tile nearer in along an axis is always inside the limit too.
             
             int i = 1;
-            if (y + radius - i >= height) i = y + radius - height + 1;
-            while (i < width - x && i < radius) {
-                
-                int thisX = x + i, thisY = y + radius - i;
-                if (openFloor(ternary, floor, thisX-1, thisY) && openFloor(ternary, floor, thisX, thisY-1))
-                    ternary[thisX][thisY] = Vis.CLEAR;
-                else if (blockedOff(ternary, floor, thisX-1, thisY) && blockedOff(ternary, floor, thisX, thisY-1))
-                    ternary[thisX][thisY] = Vis.BLOCKED;
-                else {
-                    VisDatum p = GameShell.visLOS(IndexUtil.iCx(x), IndexUtil.iCy(y), IndexUtil.iCx(thisX), IndexUtil.iCy(thisY));
-                    ternary[thisX][thisY] = p.v;
-                    if (p.v == Vis.PARTIAL) fractional[thisX][thisY] = p.f;
-                }
+            if (y + radius - i > top) i = y + radius - top;
+            while (x + i <= right && i < radius) {
+                settle(out, limit, x, y, x + i, y + radius - i, -1, -1);
                 i++;
             }
             
             i = 1;
-            if (y - radius + i < 0) i = radius - y;
-            while (i < width - x && i < radius) {
-                
-                int thisX = x + i, thisY = y - radius + i;
-                if (openFloor(ternary, floor, thisX-1, thisY) && openFloor(ternary, floor, thisX, thisY+1))
-                    ternary[thisX][thisY] = Vis.CLEAR;
-                else if (blockedOff(ternary, floor, thisX-1, thisY) && blockedOff(ternary, floor, thisX, thisY+1))
-                    ternary[thisX][thisY] = Vis.BLOCKED;
-                else {
-                    VisDatum p = GameShell.visLOS(IndexUtil.iCx(x), IndexUtil.iCy(y), IndexUtil.iCx(thisX), IndexUtil.iCy(thisY));
-                    ternary[thisX][thisY] = p.v;
-                    if (p.v == Vis.PARTIAL) fractional[thisX][thisY] = p.f;
-                }
+            if (y - radius + i < bottom) i = bottom - y + radius;
+            while (x + i <= right && i < radius) {
+                settle(out, limit, x, y, x + i, y - radius + i, -1, 1);
                 i++;
-                
             }
             
             i = 1;
-            if (y - radius + i < 0) i = radius - y;
-            while (i <= x && i < radius) {
-                
-                int thisX = x - i, thisY = y - radius + i;
-                if (openFloor(ternary, floor, thisX+1, thisY) && openFloor(ternary, floor, thisX, thisY+1))
-                    ternary[thisX][thisY] = Vis.CLEAR;
-                else if (blockedOff(ternary, floor, thisX+1, thisY) && blockedOff(ternary, floor, thisX, thisY+1))
-                    ternary[thisX][thisY] = Vis.BLOCKED;
-                else {
-                    VisDatum p = GameShell.visLOS(IndexUtil.iCx(x), IndexUtil.iCy(y), IndexUtil.iCx(thisX), IndexUtil.iCy(thisY));
-                    ternary[thisX][thisY] = p.v;
-                    if (p.v == Vis.PARTIAL) fractional[thisX][thisY] = p.f;
-                }
+            if (y - radius + i < bottom) i = bottom - y + radius;
+            while (x - i >= left && i < radius) {
+                settle(out, limit, x, y, x - i, y - radius + i, 1, 1);
                 i++;
-                
             }
             
             i = 1;
-            if (y + radius - i >= height) i = y + radius - height + 1;
-            while (i <= x && i < radius) {
-                
-                int thisX = x - i, thisY = y + radius - i;
-                if (openFloor(ternary, floor, thisX+1, thisY) && openFloor(ternary, floor, thisX, thisY-1))
-                    ternary[thisX][thisY] = Vis.CLEAR;
-                else if (blockedOff(ternary, floor, thisX+1, thisY) && blockedOff(ternary, floor, thisX, thisY-1))
-                    ternary[thisX][thisY] = Vis.BLOCKED;
-                else {
-                    VisDatum p = GameShell.visLOS(IndexUtil.iCx(x), IndexUtil.iCy(y), IndexUtil.iCx(thisX), IndexUtil.iCy(thisY));
-                    ternary[thisX][thisY] = p.v;
-                    if (p.v == Vis.PARTIAL) fractional[thisX][thisY] = p.f;
-                }
+            if (y + radius - i > top) i = y + radius - top;
+            while (x - i >= left && i < radius) {
+                settle(out, limit, x, y, x - i, y + radius - i, 1, -1);
                 i++;
-                
             }
             
         }
         
-        VisData vd = new VisData(ternary, fractional);
-            
-        return vd;
+        out.fillUndecided(Vis.BLOCKED);
+        // Everything in the box but outside the limit.
+        
+    }
+    
+    /**
+     * Settles one tile off the axes for floorVis, from its two neighbours a
+     * step nearer the viewer at (thisX+sx, thisY) and (thisX, thisY+sy) if
+     * they agree, and from line-of-sight if they don't.
+     */
+    private void settle (VisData out, ViewLimit limit, int x, int y, int thisX, int thisY, int sx, int sy) {
+        
+        if (!limit.contains(thisX - x, thisY - y)) return;
+        
+        if (openFloor(out, floor, thisX+sx, thisY) && openFloor(out, floor, thisX, thisY+sy))
+            out.set(thisX, thisY, Vis.CLEAR);
+        else if (blockedOff(out, floor, thisX+sx, thisY) && blockedOff(out, floor, thisX, thisY+sy))
+            out.set(thisX, thisY, Vis.BLOCKED);
+        else {
+            long p = ul.los(floor.iCx(x), floor.iCy(y), floor.iCx(thisX), floor.iCy(thisY));
+            Vis v = LosUtil.vis(p);
+            out.set(thisX, thisY, v);
+            if (v == Vis.PARTIAL) out.setFraction(thisX, thisY, LosUtil.fraction(p));
+        }
         
     }
+    // floor, ul
     
-    public boolean openFloor (Vis[][] t, int[][] f, int x, int y) {
-        return ((t[x][y] == Vis.CLEAR) && (f[x][y] == 0));
+    public boolean openFloor (VisData t, WorldGrid f, int x, int y) {
+        return ((t.get(x, y) == Vis.CLEAR) && (f.get(x, y) == 0));
     }
     
-    public boolean blockedOff (Vis[][] t, int[][] f, int x, int y) {
-        return ((t[x][y] == Vis.BLOCKED) || (f[x][y] == 1));
+    public boolean blockedOff (VisData t, WorldGrid f, int x, int y) {
+        return ((t.get(x, y) == Vis.BLOCKED) || (f.get(x, y) == 1));
     }
     
     
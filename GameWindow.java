@@ -0,0 +1,124 @@
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+
+/**
+ * The Swing front end: the window the floor is shown in, and the keys that
+ * move the player. Everything to do with AWT and Swing lives here, so the
+ * game itself can run without ever loading them.
+ */
+public class GameWindow implements Display, KeyListener {
+    
+    /**
+     * The "main frame" of the program, holding all graphical information.
+     */
+    private final JFrame mainFrame = new JFrame("Psy Spy");
+    /**
+     * The view that holds all the "graphics" at the moment. It only redraws
+     * the tiles that changed since the last turn.
+     */
+    private final TileView mainView = new TileView(new Font("Courier New", Font.PLAIN, 20));
+    
+    private int cols = -1;
+    private int rows = -1;
+    
+    // Which keys are down, so a press of one that already is can be told
+    // apart as a repeat.
+    private final boolean[] held = new boolean[256];
+    
+    /**
+     * Opens the window. Keys go to GameShell.submit as soon as it's up, so
+     * the turn executor has to be running first.
+     * @param first The floor to show to begin with.
+     */
+    public GameWindow (FloorFrame first) {
+        
+        mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        mainFrame.setResizable(false);
+        // I don't have enough control over Swing to make resizing an attractive
+        // option.
+        mainFrame.getContentPane().setBackground(Color.BLACK);
+        // On a black background
+        mainFrame.getContentPane().add(mainView, BorderLayout.CENTER);
+        mainFrame.addKeyListener(this);
+        
+        cols = first.getWidth();
+        rows = first.getHeight();
+        mainView.show(first);
+        // The view sizes itself to fit.
+        sizeFrame();
+        mainFrame.setLocationRelativeTo(null);
+        mainFrame.setVisible(true);
+        
+    }
+    
+    /**
+     * Shows a frame, first refitting the window around it if the floor has
+     * changed size.
+     */
+    @Override
+    public void show (FloorFrame frame) {
+        
+        boolean resized = frame.getWidth() != cols || frame.getHeight() != rows;
+        cols = frame.getWidth();
+        rows = frame.getHeight();
+        mainView.show(frame);
+        // The view resizes itself to fit.
+        
+        if (resized) SwingUtilities.invokeLater(new Runnable() {
+            @Override
+            public void run () {
+                sizeFrame();
+            }
+        });
+        
+    }
+    
+    // Fits the frame around the view.
+    private void sizeFrame () {
+        mainFrame.getContentPane().setPreferredSize(new Dimension(
+                mainView.getPreferredSize().width + 50, mainView.getPreferredSize().height + 50));
+        mainFrame.pack();
+    }
+    
+    /**
+     * Does nothing, but must be overridden for this class to extend KeyListener.
+     * @param e The KeyEvent that triggers this function.
+     */
+    @Override
+    public void keyTyped (KeyEvent e) {
+        
+    }
+    
+    /**
+     * Handles all the responses to keyPresses, by queuing the move for the
+     * turn executor. Presses of a key that's being held down are marked as
+     * repeats, which the executor drops if it's behind.
+     * @param e The KeyEvent that triggers this function.
+     */
+    @Override
+    public void keyPressed (KeyEvent e) {
+        int keyCode = e.getKeyCode();
+        boolean repeat = keyCode < held.length && held[keyCode];
+        if (keyCode < held.length) held[keyCode] = true;
+        switch (keyCode) {
+            case 37: GameShell.submit(Move.LEFT, repeat); break;
+            case 38: GameShell.submit(Move.UP, repeat); break;
+            case 39: GameShell.submit(Move.RIGHT, repeat); break;
+            case 40: GameShell.submit(Move.DOWN, repeat); break;
+            case 46: GameShell.submit(Move.WAIT, repeat); break;
+            default:
+        }
+    }
+    
+    @Override
+    public void keyReleased (KeyEvent e) {
+        if (e.getKeyCode() < held.length) held[e.getKeyCode()] = false;
+    }
+    
+}
@@ -1,49 +1,57 @@
 public class IndexUtil {
     
+    /**
+     * How many bits of an entity's member number are its slot. The rest are
+     * the generation of the slot, which goes up each time its entity dies, so
+     * an id kept from before then no longer matches.
+     */
+    public static final int SLOT_BITS = 20;
+    public static final int MAX_SLOTS = 1 << SLOT_BITS;
+    
     private final int net;
     private final int sx;
-    private final int[] ei;
+    private final int gens;
     
-    public IndexUtil (int numEntTypes, int startIndex, int[] entIndices) {
+    public IndexUtil (int numEntTypes, int startIndex) {
         net = numEntTypes;
         sx = startIndex;
-        ei = entIndices;
-    }
-    
-    public static int iCx (int index) {
-        return index - GameShell.floorXRad;
+        gens = (int) (((long) Integer.MAX_VALUE - sx) / net >>> SLOT_BITS);
+        // As many generations as keep every id a positive int.
     }
     
-    public static int iCy (int index) {
-        return index - GameShell.floorYRad;
+    public int typeIndex (EntType type, int slot, int gen) {
+        return sx + type.ix + net*(gen << SLOT_BITS | slot);
+        // A formula for the index of a member of an entity type:
+        // start index + type index + number of types * member number, where
+        // the member number is the slot with the generation above it.
     }
     
-    public static int cIx (int coord) {
-        return coord + GameShell.floorXRad;
+    public int typeOf (int index) {
+        return index < sx ? -1 : (index - sx) % net;
+        // The type index of the entity at an index, or -1 below the start
+        // index, where the player is.
     }
     
-    public static int cIy (int coord) {
-        return coord + GameShell.floorYRad;
+    public int slotOf (int index) {
+        return (index - sx) / net & (MAX_SLOTS - 1);
+        // The slot of the entity at an index, within its type.
     }
     
-    public int typeIndex (EntType type, int i) {
-        return sx + type.ix + net*i;
-        // A formula for the index of a member of an entity type:
-        // start index + type index + number of types * member index.
+    public int genOf (int index) {
+        return (index - sx) / net >>> SLOT_BITS;
     }
     
-    public int newIndex (EntType type) {
-        return net*ei[type.ix] + sx + type.ix;
-        // Given a particular type of entity, gives a good index for a new one.
+    public int keyOf (int index) {
+        return index < sx ? index : index - net*(genOf(index) << SLOT_BITS);
+        // The index with the generation taken out. Only one living entity
+        // has each, and they stay below startIndex + numEntTypes * MAX_SLOTS,
+        // so they can index arrays where full ids couldn't.
     }
     
-    // Ensures that a pair of coordinates is "good" -- within the bounds of the
-    // level, and referring to a coordinate actually contained in the array.
-    public static boolean goodCoords (int x, int y) {
-        return x >= -GameShell.floorXRad 
-            && x <=  GameShell.floorXRad 
-            && y >= -GameShell.floorYRad 
-            && y <=  GameShell.floorYRad;
+    public int nextGen (int gen) {
+        return gen + 1 == gens ? 0 : gen + 1;
+        // Generations wrap, so an id held through this many deaths of its
+        // slot's entities would look alive again.
     }
     
 }
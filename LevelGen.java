@@ -0,0 +1,289 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Makes levels out of a seed, the same level every time for the same seed.
+ *
+ * The floor inside the far walls is split in two, over and over, the long
+ * way and somewhere random, until the pieces are too small to split again.
+ * Each piece gets a room of random size and place, drawn with drawRoom, with
+ * a tile of open floor between it and the next. Then, going back up the
+ * splits, a corridor is carved from a room on one side of each split to a
+ * room on the other -- across and then along, or along and then across --
+ * with the delete primitives, which cuts a doorway through every wall it
+ * meets. The open floor between rooms is left as halls, so every room is
+ * reachable. Last, each room is stocked from a spawn table.
+ *
+ * A level is drawn into whatever floor it's given, so the game can generate
+ * straight into its own. Or generateAll makes any number of levels into
+ * floors of their own, spread over a pool of threads; nothing is shared
+ * between them, so they come out the same however the work is split up.
+ */
+public class LevelGen {
+
+    /**
+     * How many of one type of entity to put in each room: somewhere from min
+     * to max, as many as fit.
+     */
+    public static class SpawnRule {
+
+        public final EntType type;
+        public final int min;
+        public final int max;
+
+        public SpawnRule (EntType type, int min, int max) {
+            this.type = type;
+            this.min = min;
+            this.max = max;
+        }
+
+    }
+
+    /**
+     * A level made in a floor of its own: the floor, and its spawn table in
+     * the form FileUtil keeps them.
+     */
+    public static class Level {
+
+        private final long seed;
+        private final WorldGrid floor;
+        private final int[] spawns;
+
+        Level (long seed, WorldGrid floor, int[] spawns) {
+            this.seed = seed;
+            this.floor = floor;
+            this.spawns = spawns;
+        }
+
+        public long getSeed () {
+            return seed;
+        }
+
+        public WorldGrid getFloor () {
+            return floor;
+        }
+
+        // Triples of type, x and y, the player first. See FileUtil.saveLevel.
+        public int[] getSpawns () {
+            return spawns;
+        }
+
+    }
+
+    public static final SpawnRule[] DEFAULT_SPAWNS = {
+        new SpawnRule(EntType.ENEMY, 0, 2),
+        new SpawnRule(EntType.FURNITURE, 0, 3)
+    };
+
+    // The smallest piece a split can leave, and the smallest room, walls
+    // included, on either side.
+    private static final int MIN_LEAF = 8;
+    private static final int MIN_ROOM = 5;
+
+    private final int xRad;
+    private final int yRad;
+    private final SpawnRule[] rules;
+
+    /**
+     * @param xRad The "radius" in the X direction of the floors made.
+     * @param yRad The same for the Y direction.
+     * @param rules What to put in each room.
+     */
+    public LevelGen (int xRad, int yRad, SpawnRule[] rules) {
+        this.xRad = xRad;
+        this.yRad = yRad;
+        this.rules = rules.clone();
+    }
+
+    public LevelGen (int xRad, int yRad) {
+        this(xRad, yRad, DEFAULT_SPAWNS);
+    }
+
+    /**
+     * Makes one level in a floor of its own.
+     * @param seed Decides everything about it.
+     */
+    public Level generate (long seed) {
+        WorldGrid floor = new WorldGrid(xRad, yRad);
+        int[] spawns = generate(seed, floor, new DrawUtil(floor));
+        return new Level(seed, floor, spawns);
+    }
+
+    /**
+     * Makes a level in a floor that's already there. The floor should be
+     * empty and the size this was made for.
+     * @param seed Decides everything about it.
+     * @param floor The floor, to get its size from.
+     * @param ud Draws on the floor.
+     * @return The spawn table: triples of type, x and y, the player first.
+     * See FileUtil.saveLevel.
+     */
+    public int[] generate (long seed, WorldGrid floor, DrawUtil ud) {
+
+        Build b = new Build(new SplittableRandom(seed), ud);
+
+        ud.farWalls();
+        int centre = b.split(-floor.getXRad() + 1, -floor.getYRad() + 1, floor.getXRad() - 1, floor.getYRad() - 1);
+        if (b.rooms == 0) b.addSpawn(FileUtil.SPAWN_PLAYER, centre >> 16, (short) centre);
+        // Too small for a room; the player goes in the middle.
+
+        return Arrays.copyOf(b.spawns, b.spawnCount);
+
+    }
+
+    /**
+     * Makes a level for each seed, each in a floor of its own, in parallel.
+     * @param seeds One for each level.
+     * @param pool The threads to use.
+     * @return The levels, in the order of their seeds.
+     */
+    public Level[] generateAll (long[] seeds, ForkJoinPool pool) {
+        Level[] out = new Level[seeds.length];
+        if (seeds.length > 0) pool.invoke(new GenerateAll(seeds, out, 0, seeds.length));
+        return out;
+    }
+
+    /**
+     * The state of one level being made. Coordinates are packed two to an
+     * int, x in the high half and y in the low.
+     */
+    private class Build {
+
+        final SplittableRandom rand;
+        final DrawUtil ud;
+
+        int rooms = 0;
+        int[] spawns = new int[48];
+        int spawnCount = 0;
+
+        Build (SplittableRandom rand, DrawUtil ud) {
+            this.rand = rand;
+            this.ud = ud;
+        }
+
+        /**
+         * Splits a piece of the floor, edges included, and carves a corridor
+         * between the two halves once they're done.
+         * @return The middle of a room in the piece, or of the piece if it
+         * has no room.
+         */
+        int split (int x1, int y1, int x2, int y2) {
+
+            int w = x2 - x1 + 1, h = y2 - y1 + 1;
+            boolean across = w >= 2*MIN_LEAF && (w >= h || h < 2*MIN_LEAF);
+            boolean along = !across && h >= 2*MIN_LEAF;
+            if (!across && !along) return room(x1, y1, x2, y2);
+
+            int a, b;
+            if (across) {
+                int s = x1 + MIN_LEAF + rand.nextInt(w - 2*MIN_LEAF + 1);
+                a = split(x1, y1, s - 1, y2);
+                b = split(s, y1, x2, y2);
+            } else {
+                int s = y1 + MIN_LEAF + rand.nextInt(h - 2*MIN_LEAF + 1);
+                a = split(x1, y1, x2, s - 1);
+                b = split(x1, s, x2, y2);
+            }
+
+            int ax = a >> 16, ay = (short) a, bx = b >> 16, by = (short) b;
+            if (rand.nextBoolean()) {
+                ud.deleteWallHorizontal(ay, ax, bx);
+                ud.deleteWallVertical(bx, ay, by);
+            } else {
+                ud.deleteWallVertical(ax, ay, by);
+                ud.deleteWallHorizontal(by, ax, bx);
+            }
+
+            return rand.nextBoolean() ? a : b;
+
+        }
+
+        // Draws a room somewhere in a piece that won't split, and stocks it.
+        int room (int x1, int y1, int x2, int y2) {
+
+            int w = x2 - x1 + 1, h = y2 - y1 + 1;
+            if (w - 2 < MIN_ROOM || h - 2 < MIN_ROOM) return pack((x1 + x2) >> 1, (y1 + y2) >> 1);
+
+            int rw = MIN_ROOM + rand.nextInt(w - 2 - MIN_ROOM + 1);
+            int rh = MIN_ROOM + rand.nextInt(h - 2 - MIN_ROOM + 1);
+            int rx = x1 + 1 + rand.nextInt(w - 2 - rw + 1);
+            int ry = y1 + 1 + rand.nextInt(h - 2 - rh + 1);
+            ud.drawRoom(rx, ry, rx + rw - 1, ry + rh - 1);
+            // A tile of the piece clear all the way round.
+
+            int cx = rx + rw/2, cy = ry + rh/2;
+            stock(rx + 1, ry + 1, rw - 2, rh - 2, cx, cy);
+            rooms++;
+            return pack(cx, cy);
+
+        }
+
+        /**
+         * Spawns entities on tiles of a room's inside, never two on one tile
+         * or one on its middle. The player gets the middle of the first room.
+         */
+        void stock (int x, int y, int w, int h, int cx, int cy) {
+
+            int n = w*h;
+            boolean[] taken = new boolean[n];
+            taken[(cy - y)*w + cx - x] = true;
+            int free = n - 1;
+            if (rooms == 0) addSpawn(FileUtil.SPAWN_PLAYER, cx, cy);
+
+            for (SpawnRule r : rules) {
+                int count = Math.min(free, r.min + rand.nextInt(r.max - r.min + 1));
+                for (int k = 0; k < count; k++) {
+                    int t;
+                    do t = rand.nextInt(n); while (taken[t]);
+                    taken[t] = true;
+                    free--;
+                    addSpawn(1 + r.type.ix, x + t % w, y + t / w);
+                }
+            }
+
+        }
+
+        void addSpawn (int type, int x, int y) {
+            if (spawnCount + 3 > spawns.length) spawns = Arrays.copyOf(spawns, 2*spawns.length);
+            spawns[spawnCount++] = type;
+            spawns[spawnCount++] = x;
+            spawns[spawnCount++] = y;
+        }
+
+    }
+
+    private static int pack (int x, int y) {
+        return x << 16 | (y & 0xFFFF);
+    }
+
+    private class GenerateAll extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long[] seeds;
+        private final Level[] out;
+        private final int from;
+        private final int to;
+
+        GenerateAll (long[] seeds, Level[] out, int from, int to) {
+            this.seeds = seeds;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute () {
+            if (to - from == 1) {
+                out[from] = generate(seeds[from]);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new GenerateAll(seeds, out, from, mid), new GenerateAll(seeds, out, mid, to));
+        }
+
+    }
+
+}
@@ -0,0 +1,420 @@
+import java.util.Arrays;
+
+/**
+ * The line-of-sight kernel behind directLOS, fracLOS and visLOS.
+ *
+ * One test answers all three questions at once. The result is packed into a
+ * long instead of an object: the high half holds the aperture (how much of
+ * the line is unobstructed, negative if none of it is) and the low half holds
+ * the span it's measured against. The static helpers unpack it, so a query
+ * never allocates anything.
+ *
+ * losBatch answers for one tile against many. It keeps working space between
+ * calls, so an instance shouldn't be shared between threads that use it.
+ */
+public class LosUtil {
+
+    /**
+     * The result for a line that can't be seen along at all.
+     */
+    public static final long BLOCKED = pack(-1, 1);
+
+    // What walk returns if the line leaves the floor.
+    private static final long OFF_FLOOR = -1L;
+
+    /**
+     * What los looks at for every offset up to RAY_RANGE each way, once it's
+     * been asked about. Longer lines are walked as they come.
+     */
+    public static final int RAY_RANGE = 64;
+    private static final RayTable rays = new RayTable(RAY_RANGE);
+
+    private final GameUtil ug;
+
+    // For losBatch: the targets in the order they're done, and what's known
+    // about each direction, hashed by the direction.
+    private long[] order = new long[0];
+    private long[] dirKeys = new long[0];
+    private int[] dirStamps = new int[0];
+    private int[] dirDone = new int[0];
+    private int[] dirInf = new int[0];
+    private int[] dirSup = new int[0];
+    private int stamp = 0;
+
+    // For losBatch: which tiles of a box are clear, row by row.
+    private boolean[] clear = new boolean[0];
+    private int boxX;
+    private int boxY;
+    private int boxWidth;
+
+    public LosUtil (GameUtil gameUtil) {
+        ug = gameUtil;
+    }
+
+    public static long pack (int aperture, int span) {
+        return ((long) aperture << 32) | (span & 0xFFFFFFFFL);
+    }
+
+    public static int aperture (long r) {
+        return (int) (r >> 32);
+    }
+
+    public static int span (long r) {
+        return (int) r;
+    }
+
+    public static Vis vis (long r) {
+        int aperture = aperture(r);
+        if (aperture < 0) return Vis.BLOCKED;
+        return aperture == span(r) ? Vis.CLEAR : Vis.PARTIAL;
+    }
+
+    // The unobstructed fraction of the line, 1 for a clear one.
+    public static double fraction (long r) {
+        int aperture = aperture(r), span = span(r);
+        if (aperture == span) return 1d;
+        return aperture > 0 ? (double) aperture / span : 0d;
+    }
+
+    /**
+     * Determines whether or not two squares can see another clearly,
+     * partially, or not at all, and how much.
+     * Specifically, the algorithm determines whether there exists a point in one
+     * tile that has line-of-sight to its counterpart in the second tile, and if
+     * so, whether every point can do so.
+     * @param x1
+     * @param y1
+     * @param x2
+     * @param y2
+     * @return The packed aperture and span. See vis and fraction.
+     */
+    public long los (int x1, int y1, int x2, int y2) {
+
+        if (x1 > x2) {
+            int temp = x2;
+            x2 = x1;
+            x1 = temp;
+            temp = y2;
+            y2 = y1;
+            y1 = temp;
+        }
+        // Switches the coordinate pairs so that p1 is on the left.
+
+        boolean up = y2 > y1;
+        // Whether p2 is above p1.
+
+        if (x1 == x2) {
+            if (y1 == y2) return pack(0, 0);
+            boolean clear = up ? ug.columnClear(x1, y1 + 1, y2 - 1) : ug.columnClear(x1, y2 + 1, y1 - 1);
+            return clear ? pack(1, 1) : BLOCKED;
+        } else if (y1 == y2) {
+            return ug.rowClear(y1, x1 + 1, x2 - 1) ? pack(1, 1) : BLOCKED;
+        }
+        // Those were the easy conditions -- if the tiles are horizontally or
+        // vertically aligned with one another, or if they're in fact the same
+        // tile, there's nothing to see past but the run of tiles in between.
+
+        int dx = x2 - x1;                   // The horizontal distance.
+        int dy = y2 - y1;                   // The vertical distance (negative if p2 is below)
+
+        WallBits walls = ug.getWalls();
+        if (walls != null && dx <= RAY_RANGE && dy <= RAY_RANGE && dy >= -RAY_RANGE
+                && ug.goodCoords(x1, Math.min(y1, y2) - 1) && ug.goodCoords(x2 + 1, Math.max(y1, y2) + 1))
+            return scan(rays.get(dx, dy), walls, ug.wallBit(x1, y1));
+        // Close enough to have the walk written down already, and far enough
+        // from the edge that nothing looked at is off the floor, so the walls
+        // can be read straight from their bits.
+
+        int k = ug.gcd(dx, dy);
+        int ddx = dx/k;                     // smaller horiz. length
+        int ddy = dy/k;                     // smaller vert.  length
+        int d = ddx + (ddy > 0 ? ddy : -ddy);
+
+        // The gcd gives how many tiles are centered precisely on the line
+        // between the two being tested. The test is cut up into that many
+        // smaller ones, between each of those tiles and the next, and their
+        // results are narrowed down into a single bigger one. When dx and dy
+        // are relatively prime, that's just the one straightforward test.
+
+        int inf = 0, sup = d;
+        for (int i = 0; i < k; i++) {
+
+            long r = walk(x1 + i*ddx, y1 + i*ddy, ddx, ddy, up);
+            if (r == OFF_FLOOR) return BLOCKED; // Just in case.
+
+            int rInf = (int) (r >> 32), rSup = (int) r;
+            inf = rInf > inf ? rInf : inf; // Greatest lower bound on occlusion.
+            sup = rSup < sup ? rSup : sup; // Least upper bound, occlusion.
+
+            if (sup - inf < 0) return BLOCKED;
+            // If the least upper bound is less than the greatest lower bound,
+            // that means the interval of line-of-sight doesn't exist.
+
+            // There has to be less than no way to see through, so corners
+            // are visible.
+
+            if (i != 0 && !ug.tileClear(x1 + i*ddx, y1 + i*ddy)) return BLOCKED;
+            // If one of the interceding tiles is standing square in the way,
+            // line-of-sight is blocked by it, regardless of the rest.
+
+        }
+
+        return pack(sup - inf, d);
+        // If LOS is not confirmed blocked, it's some form of clear.
+
+    }
+
+    /**
+     * Tests line-of-sight from one tile to many, giving the same results as
+     * los would one at a time.
+     *
+     * Los cuts a line into as many identical segments as the gcd of its
+     * sides, so the line to a tile twice as far in the same direction starts
+     * with the same segments. Targets are taken nearest first, and what's
+     * been found along each direction -- the bounds on occlusion so far, or
+     * that something blocks it outright -- is kept and carried on from, so no
+     * segment is walked twice, and nothing past a wall is walked at all.
+     * The walls around the targets are read once into a plain array first,
+     * and every walk reads that instead, stopping the moment its line is
+     * shut. Targets too spread out for that to pay are done with los.
+     * @param x The x coordinate of the tile looked from.
+     * @param y Its y coordinate.
+     * @param xs The x coordinates of the targets.
+     * @param ys Their y coordinates.
+     * @param count How many targets there are.
+     * @param out Gets each target's packed result, as from los.
+     * @return How many targets aren't blocked.
+     */
+    public int losBatch (int x, int y, int[] xs, int[] ys, int count, long[] out) {
+
+        if (!snapshot(x, y, xs, ys, count)) {
+            int seen = 0;
+            for (int t = 0; t < count; t++) {
+                out[t] = los(x, y, xs[t], ys[t]);
+                if (aperture(out[t]) >= 0) seen++;
+            }
+            return seen;
+        }
+        // Targets that spread out hardly ever share a line, and copying the
+        // walls wouldn't pay, so they're just done one at a time.
+
+        if (order.length < count) order = new long[count];
+        if (dirKeys.length < 2*count) {
+            int size = Integer.highestOneBit(Math.max(2*count - 1, 1)) << 1;
+            dirKeys = new long[size];
+            dirStamps = new int[size];
+            dirDone = new int[size];
+            dirInf = new int[size];
+            dirSup = new int[size];
+            stamp = 0;
+        }
+        if (++stamp == 0) {
+            Arrays.fill(dirStamps, 0);
+            stamp = 1;
+        }
+        // Stamping empties the table without touching it.
+
+        for (int t = 0; t < count; t++) {
+            int k = Math.max(ug.gcd(xs[t] - x, ys[t] - y), 0);
+            // gcd says -1 for the tile itself.
+            order[t] = (long) k << 32 | t;
+        }
+        Arrays.sort(order, 0, count);
+        // Nearest first along each direction.
+
+        int mask = dirKeys.length - 1;
+        int seen = 0;
+
+        for (int n = 0; n < count; n++) {
+
+            int t = (int) order[n];
+            int k = (int) (order[n] >>> 32);
+            if (k == 0) {
+                out[t] = pack(0, 0);
+                seen++;
+                continue;
+            }
+            // The tile itself.
+
+            int px = (xs[t] - x)/k, py = (ys[t] - y)/k;
+            long key = (long) px << 32 | (py & 0xFFFFFFFFL);
+            int h = (int) (key ^ key >>> 29) * 0x9E3779B1 >>> 7 & mask;
+            while (dirStamps[h] == stamp && dirKeys[h] != key) h = (h + 1) & mask;
+            if (dirStamps[h] != stamp) {
+                dirStamps[h] = stamp;
+                dirKeys[h] = key;
+                dirDone[h] = 0;
+                dirInf[h] = 0;
+                dirSup[h] = px == 0 || py == 0 ? 1 : (px > 0 ? px : -px) + (py > 0 ? py : -py);
+            }
+
+            int done = dirDone[h], inf = dirInf[h], sup = dirSup[h];
+            for (int j = done + 1; j <= k && sup >= inf; j++) {
+
+                int cx = x + (j - 1)*px, cy = y + (j - 1)*py;
+                if (j > 1 && !clear[(cy - boxY)*boxWidth + cx - boxX]) {
+                    sup = -1;
+                    break;
+                }
+                // The tile before this segment stands square in the way.
+                if (px == 0 || py == 0) continue;
+                // In line with a row or column, that's all there is to it.
+
+                long r = px > 0 ? walkBoxed(cx, cy, px, py, py > 0, inf, sup)
+                        : walkBoxed(cx + px, cy + py, -px, -py, py < 0, inf, sup);
+                if (r == OFF_FLOOR) {
+                    sup = -1;
+                    break;
+                }
+                int rInf = (int) (r >> 32), rSup = (int) r;
+                inf = rInf > inf ? rInf : inf;
+                sup = rSup < sup ? rSup : sup;
+
+            }
+            if (sup < inf) {
+                sup = -1;
+                inf = 0;
+            }
+            // Once blocked, blocked for good, and never walked again.
+
+            dirDone[h] = k;
+            dirInf[h] = inf;
+            dirSup[h] = sup;
+
+            int span = px == 0 || py == 0 ? 1 : (px > 0 ? px : -px) + (py > 0 ? py : -py);
+            if (sup < 0) out[t] = BLOCKED;
+            else {
+                out[t] = pack(sup - inf, span);
+                seen++;
+            }
+
+        }
+
+        return seen;
+
+    }
+
+    /**
+     * Checks the tiles of a RayTable template against the walls.
+     * @param t The template.
+     * @param walls The walls.
+     * @param base The bit of the left-hand end in walls.
+     * @return The packed aperture and span, as from los.
+     */
+    private static long scan (int[] t, WallBits walls, int base) {
+
+        int stride = walls.getStride();
+        int inf = 0, sup = t[0];
+        for (int e = 1; e < t.length; e += 2) {
+            int off = t[e];
+            if (!walls.isWallBit(base + RayTable.offsetY(off)*stride + RayTable.offsetX(off))) continue;
+            int w = t[e + 1];
+            inf = Math.max(inf, w >>> 16);
+            sup = Math.min(sup, w & 0xFFFF);
+            if (sup < inf) return BLOCKED;
+        }
+        return pack(sup - inf, t[0]);
+
+    }
+
+    /**
+     * Walks the tiles along one segment with relatively prime sides, and
+     * narrows down the interval through which it can be seen along.
+     * Blah blah number theory.
+     * @return The lower and upper bounds on occlusion, packed high and low,
+     * or OFF_FLOOR.
+     */
+    private long walk (int x, int y, int dx, int dy, boolean up) {
+
+        if (!ug.goodCoords(x, y) || !ug.goodCoords(x+dx, y+dy)) return OFF_FLOOR;
+
+        dy = dy > 0 ? dy : -dy;
+        int sup = dx + dy;
+        int inf = 0;
+        int cur = dx;
+        int step = up ? 1 : -1;
+
+        while (true) {
+
+            if (!ug.tileClear(x, y+step)) sup = cur < sup ? cur : sup;
+            if (!ug.tileClear(x+1, y)) inf = cur > inf ? cur : inf;
+
+            if (cur < dy) {
+                y += step;
+                cur += dx;
+            } else if (cur > dy) {
+                x++;
+                cur -= dy;
+            } else break;
+
+        }
+
+        return ((long) inf << 32) | sup;
+
+    }
+
+    /**
+     * Copies which tiles are clear in the box around a tile and targets, one
+     * tile wider all round, since walks look one past their ends. Off the
+     * floor counts as wall.
+     * @return Whether it was worth it: false, and nothing copied, if there
+     * are more tiles in the box than the walks to the targets would cross.
+     */
+    private boolean snapshot (int x, int y, int[] xs, int[] ys, int count) {
+
+        int x1 = x, y1 = y, x2 = x, y2 = y;
+        long walked = 0;
+        for (int t = 0; t < count; t++) {
+            x1 = Math.min(x1, xs[t]);
+            x2 = Math.max(x2, xs[t]);
+            y1 = Math.min(y1, ys[t]);
+            y2 = Math.max(y2, ys[t]);
+            walked += Math.abs(xs[t] - x) + Math.abs(ys[t] - y);
+        }
+        long area = (long) (x2 - x1 + 3)*(y2 - y1 + 3);
+        if (area > walked) return false;
+
+        boxX = x1 - 1;
+        boxY = y1 - 1;
+        boxWidth = x2 - x1 + 3;
+        if (clear.length < area) clear = new boolean[(int) area];
+        for (int iy = 0, i = 0; iy < y2 - y1 + 3; iy++)
+            for (int ix = 0; ix < boxWidth; ix++) clear[i++] = ug.tileClear(boxX + ix, boxY + iy);
+        return true;
+
+    }
+
+    /**
+     * The same as walk, reading the snapshot, and starting from the bounds
+     * found so far along the line, so it can stop as soon as they cross.
+     */
+    private long walkBoxed (int x, int y, int dx, int dy, boolean up, int inf, int sup) {
+
+        if (!ug.goodCoords(x, y) || !ug.goodCoords(x+dx, y+dy)) return OFF_FLOOR;
+
+        dy = dy > 0 ? dy : -dy;
+        int cur = dx;
+        int i = (y - boxY)*boxWidth + x - boxX;
+        int row = up ? boxWidth : -boxWidth;
+
+        while (true) {
+
+            if (!clear[i + row]) sup = cur < sup ? cur : sup;
+            if (!clear[i + 1]) inf = cur > inf ? cur : inf;
+            if (sup < inf) break;
+
+            if (cur < dy) {
+                i += row;
+                cur += dx;
+            } else if (cur > dy) {
+                i++;
+                cur -= dy;
+            } else break;
+
+        }
+
+        return ((long) inf << 32) | sup;
+
+    }
+
+}
@@ -0,0 +1,352 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A WorldGrid that only keeps some of its chunks in memory, with the rest in
+ * a file, for worlds too big for the heap.
+ *
+ * Each chunk has a fixed slot in the file, in the same order as the grid's
+ * chunks. Chunks are read in when they're first touched and kept in an LRU
+ * capped by a memory budget. Whatever falls off the end is written back if
+ * it was changed, and dropped if it wasn't. Chunks never written to anything
+ * but 0 never exist at all, in memory or on disk, same as in WorldGrid.
+ *
+ * Nothing outside has to know: get and set page chunks in as needed, so
+ * GameUtil, DrawUtil and the rest work on this as on any other grid. The
+ * game can also page in the neighbourhood of something ahead of time with
+ * pageAround, and have the next one over read in the background with
+ * prefetch.
+ *
+ * Reading a tile takes no lock as long as its chunk is where the last look
+ * left it: chunks looked up are published in a small table of slots, keyed
+ * by chunk, and a read that finds its chunk there goes straight to it. Only
+ * a miss locks, to go through the LRU and maybe the file. So the enemies'
+ * moves, decided on many threads at once, don't all queue on one monitor.
+ * Writes, paging and the prefetch thread all hold the lock, and a chunk
+ * evicted is dropped, never reused, so a read racing an eviction still
+ * sees the tiles as they were. Hits in the slots don't count as use for
+ * the LRU; misses and pageAround do.
+ */
+public class PagedGrid extends WorldGrid implements AutoCloseable {
+
+    private static final int CHUNK_INTS = CHUNK*CHUNK;
+    private static final long SLOT_BYTES = 4L*CHUNK_INTS;
+
+    private final FileChannel file;
+    private final int capacity;
+
+    // The chunks in memory, least recently used first, by chunk index.
+    private final LinkedHashMap<Integer, int[]> resident;
+    private final BitSet dirty = new BitSet();
+    private final BitSet stored = new BitSet();
+
+    /**
+     * A chunk as it was last looked up: its tiles, or null if it has none
+     * yet. Immutable, so it can be read from a slot without the lock.
+     */
+    private static class Slot {
+
+        final int key;
+        final int[] chunk;
+
+        Slot (int key, int[] chunk) {
+            this.key = key;
+            this.chunk = chunk;
+        }
+
+    }
+
+    // The most slots there are, however big the budget.
+    private static final int MAX_SLOTS = 1 << 16;
+
+    // By chunk index, hashed; see slot. Only changed with the lock held.
+    private final AtomicReferenceArray<Slot> slots;
+    private final int slotShift;
+
+    private final ByteBuffer io = ByteBuffer.allocateDirect((int) SLOT_BYTES);
+    private final IntBuffer ioInts = io.asIntBuffer();
+
+    private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread (Runnable r) {
+            Thread t = new Thread(r, "PagedGrid prefetch");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private long loads = 0;
+    private long writeBacks = 0;
+
+    /**
+     * @param xRad The "radius" in the X direction, as in WorldGrid.
+     * @param yRad The same for the Y direction.
+     * @param path The file to page chunks to and from. If it already exists,
+     * the chunks in it are taken as the grid's contents.
+     * @param budgetBytes Roughly how much memory the chunks in memory can
+     * take up. At least one is always kept.
+     * @throws IOException If the file can't be opened.
+     */
+    public PagedGrid (int xRad, int yRad, Path path, long budgetBytes) throws IOException {
+
+        super(xRad, yRad, false);
+
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long inFile = Math.min(file.size() / SLOT_BYTES, (long) getChunksX()*getChunksY());
+        stored.set(0, (int) inFile);
+
+        capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / SLOT_BYTES));
+        resident = new LinkedHashMap<Integer, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<Integer, int[]> eldest) {
+                if (size() <= capacity) return false;
+                evict(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+
+        int n = (int) Math.min(MAX_SLOTS, Math.min(2L*capacity, (long) getChunksX()*getChunksY()));
+        n = Math.max(2, Integer.highestOneBit(Math.max(1, n - 1)) << 1);
+        slots = new AtomicReferenceArray<>(n);
+        slotShift = 32 - Integer.numberOfTrailingZeros(n);
+
+    }
+
+    @Override
+    public synchronized void set (int ix, int iy, int value) {
+        super.set(ix, iy, value);
+        int key = (iy >>> CHUNK_BITS)*getChunksX() + (ix >>> CHUNK_BITS);
+        if (resident.containsKey(key)) dirty.set(key);
+        // If there's no chunk, nothing was written and nothing is dirty.
+    }
+
+    @Override
+    public synchronized void fill (int ix1, int iy1, int ix2, int iy2, int value) {
+        super.fill(ix1, iy1, ix2, iy2, value);
+    }
+
+    @Override
+    protected void filled (int cx, int cy) {
+        dirty.set(cy*getChunksX() + cx);
+    }
+    // Only ever called with the lock held, from fill.
+
+    @Override
+    protected int[] chunk (int cx, int cy, boolean create) {
+
+        int key = cy*getChunksX() + cx;
+        Slot s = slots.get(slot(key));
+        if (s != null && s.key == key && (s.chunk != null || !create)) return s.chunk;
+        return miss(key, create);
+
+    }
+
+    // Finds a chunk through the LRU, reading it in if it's stored, and
+    // publishes it in its slot.
+    private synchronized int[] miss (int key, boolean create) {
+
+        int[] c = resident.get(key);
+        if (c == null) {
+            if (stored.get(key)) c = read(key);
+            else if (create) c = new int[CHUNK_INTS];
+            if (c != null) resident.put(key, c);
+            // Which can evict another, and empty its slot.
+        }
+
+        int i = slot(key);
+        Slot s = slots.get(i);
+        if (s == null || s.key != key || s.chunk != c) slots.set(i, new Slot(key, c));
+        return c;
+
+    }
+
+    // Reads in a chunk if it's stored and not in memory, and marks it used
+    // either way, so it isn't the next evicted. It's published when it's
+    // next looked up.
+    private synchronized void touch (int key) {
+        if (resident.get(key) == null && stored.get(key)) resident.put(key, read(key));
+    }
+
+    // Where a chunk is published. Hashed, so the chunks of one column of
+    // the grid, whose indices differ by a multiple of the width, don't all
+    // land in the same slot.
+    private int slot (int key) {
+        return (key*0x9E3779B9) >>> slotShift;
+    }
+
+    /**
+     * Pages in every chunk within a square around a tile, so the game won't
+     * have to wait on them one at a time.
+     * @param x The x coordinate of the middle.
+     * @param y The y coordinate of the middle.
+     * @param radius How far out to go in each direction, in tiles.
+     */
+    public void pageAround (int x, int y, int radius) {
+
+        int cx1 = Math.max(0, cIx(x - radius)) >>> CHUNK_BITS;
+        int cx2 = Math.min(getWidth() - 1, cIx(x + radius)) >> CHUNK_BITS;
+        int cy1 = Math.max(0, cIy(y - radius)) >>> CHUNK_BITS;
+        int cy2 = Math.min(getHeight() - 1, cIy(y + radius)) >> CHUNK_BITS;
+        if (cx1 > cx2 || cy1 > cy2) return;
+        // A square wholly off the low edge comes out with cx2 or cy2 at -1.
+
+        for (int cy = cy1; cy <= cy2; cy++)
+            for (int cx = cx1; cx <= cx2; cx++)
+                touch(cy*getChunksX() + cx);
+
+    }
+
+    /**
+     * Pages in the square next over from a tile in the direction it's moving,
+     * on a background thread.
+     * @param x The x coordinate of the tile.
+     * @param y The y coordinate of the tile.
+     * @param dx The x direction of movement.
+     * @param dy The y direction of movement.
+     * @param radius The "radius" of the square, as in pageAround.
+     */
+    public void prefetch (int x, int y, int dx, int dy, final int radius) {
+
+        if (dx == 0 && dy == 0) return;
+        final int px = x + Integer.signum(dx)*2*radius;
+        final int py = y + Integer.signum(dy)*2*radius;
+        prefetcher.execute(new Runnable() {
+            @Override
+            public void run () {
+                pageAround(px, py, radius);
+            }
+        });
+
+    }
+
+    /**
+     * Writes every changed chunk back to the file, keeping them in memory.
+     */
+    public synchronized void flush () {
+
+        for (Map.Entry<Integer, int[]> e : resident.entrySet()) {
+            if (dirty.get(e.getKey())) write(e.getKey(), e.getValue());
+        }
+        dirty.clear();
+        try {
+            file.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+    }
+
+    /**
+     * Flushes, stops prefetching and closes the file. The grid can't be used
+     * afterwards.
+     */
+    @Override
+    public void close () throws IOException {
+
+        prefetcher.shutdown();
+        try {
+            prefetcher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Interrupting a read would close the file under us, so the prefetch
+        // in flight is left to finish.
+        flush();
+        file.close();
+
+    }
+
+    // The number of chunks in memory, rather than all that exist.
+    @Override
+    public synchronized int allocatedChunks () {
+        return resident.size();
+    }
+
+    public int getCapacity () {
+        return capacity;
+    }
+
+    public synchronized long getLoads () {
+        return loads;
+    }
+
+    public synchronized long getWriteBacks () {
+        return writeBacks;
+    }
+
+    // Drops every chunk in memory, writing back changed ones, and empties
+    // the LRU. Mostly for measuring the cost of paging.
+    public synchronized void evictAll () {
+
+        Iterator<Map.Entry<Integer, int[]>> it = resident.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, int[]> e = it.next();
+            evict(e.getKey(), e.getValue());
+            it.remove();
+        }
+
+    }
+
+    private void evict (int key, int[] c) {
+
+        if (dirty.get(key)) {
+            write(key, c);
+            dirty.clear(key);
+        }
+        Slot s = slots.get(slot(key));
+        if (s != null && s.key == key) slots.set(slot(key), null);
+        // A reader already holding c keeps it, and it's never handed out
+        // again, so what it reads is only ever out of date, never wrong.
+
+    }
+
+    private int[] read (int key) {
+
+        int[] c = new int[CHUNK_INTS];
+        io.clear();
+        try {
+            long pos = key*SLOT_BYTES;
+            while (io.hasRemaining() && file.read(io, pos + io.position()) >= 0);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        while (io.hasRemaining()) io.put((byte) 0);
+        // Past the end of the file reads as zeroes.
+        ioInts.clear();
+        ioInts.get(c);
+        loads++;
+        return c;
+
+    }
+
+    private void write (int key, int[] c) {
+
+        ioInts.clear();
+        ioInts.put(c);
+        io.clear();
+        try {
+            long pos = key*SLOT_BYTES;
+            while (io.hasRemaining()) file.write(io, pos + io.position());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        stored.set(key);
+        writeBacks++;
+
+    }
+
+}
@@ -0,0 +1,370 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Finds the shortest way between two tiles around the walls, stepping up,
+ * down, left and right.
+ *
+ * The search is A* with the Manhattan distance as its guide. Tiles are known
+ * by their index into the floor, row by row, and the open set is a binary
+ * heap of those that knows where each tile sits in it, so a shorter way to a
+ * tile already waiting just moves it up. Each thread keeps its own scratch
+ * arrays, sized by the node budget rather than the floor, and reuses them
+ * from one search to the next. A search that would look at more tiles than
+ * the budget gives up instead.
+ *
+ * Only walls block. Entities move every turn, so leaving them out is what
+ * lets a path be kept: finished paths are cached by start and goal, tagged
+ * with the floor's version the way CachedFov does it, and every tile along a
+ * path is entered as a start of its own. An enemy walking a path, or one
+ * that steps onto another's on the way to the same goal, finds the rest of
+ * it waiting. Whoever follows a path still has to check the tile is empty.
+ *
+ * Safe to use from several threads at once, as long as the floor isn't
+ * being written meanwhile.
+ */
+public class Pathfinder {
+
+    private static final int NONE = -1;
+    private static final int CLOSED = -2;
+
+    private static final Route NO_WAY = new Route(null, 0);
+
+    private final WorldGrid floor;
+    private final GameUtil ug;
+    private final int width;
+    private final int budget;
+
+    private final LinkedHashMap<Long, Route> recent;
+    private final int capacity;
+    private long cachedVersion;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long failures = 0;
+
+    // Where a path goes from one of its tiles on. Tiles is null where there
+    // was no way, which is remembered too.
+    private static class Route {
+
+        final int[] tiles;
+        final int from;
+
+        Route (int[] tiles, int from) {
+            this.tiles = tiles;
+            this.from = from;
+        }
+
+    }
+
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue () {
+            return new Scratch(budget);
+        }
+    };
+
+    /**
+     * @param floor The floor searched over.
+     * @param gameUtil Says which tiles are clear.
+     * @param budget The most tiles one search takes out of the open set.
+     * @param capacity How many start tiles to remember paths from. 0 turns
+     * the cache off.
+     */
+    public Pathfinder (WorldGrid floor, GameUtil gameUtil, int budget, final int capacity) {
+
+        this.floor = floor;
+        ug = gameUtil;
+        width = floor.getWidth();
+        this.budget = budget;
+        this.capacity = capacity;
+        cachedVersion = floor.getVersion();
+
+        recent = new LinkedHashMap<Long, Route>(2*capacity + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<Long, Route> eldest) {
+                return size() > capacity;
+            }
+        };
+
+    }
+
+    /**
+     * Finds a path.
+     * @param out Gets the tiles along it as floor indices (iy * width + ix),
+     * from the first step to the goal. Only as many as fit are written.
+     * @return How many steps the path takes -- 0 if the start is the goal --
+     * or -1 if there's no way there within the budget.
+     */
+    public int path (int x1, int y1, int x2, int y2, int[] out) {
+        Route r = route(x1, y1, x2, y2);
+        if (r.tiles == null) return NONE;
+        int len = r.tiles.length - r.from;
+        System.arraycopy(r.tiles, r.from, out, 0, Math.min(len, out.length));
+        return len;
+    }
+
+    /**
+     * The first step of a path.
+     * @return The floor index of the tile to step into, or -1 if there's no
+     * way within the budget or the start is the goal.
+     */
+    public int nextStep (int x1, int y1, int x2, int y2) {
+        Route r = route(x1, y1, x2, y2);
+        return r.tiles == null || r.from == r.tiles.length ? NONE : r.tiles[r.from];
+    }
+
+    public int tileX (int tile) {
+        return floor.iCx(tile % width);
+    }
+
+    public int tileY (int tile) {
+        return floor.iCy(tile / width);
+    }
+
+    public synchronized long getHits () {
+        return hits;
+    }
+
+    public synchronized long getMisses () {
+        return misses;
+    }
+
+    // Searches that ran out of budget or found no way at all.
+    public synchronized long getFailures () {
+        return failures;
+    }
+
+    private Route route (int x1, int y1, int x2, int y2) {
+
+        if (!floor.goodCoords(x1, y1) || !ug.tileClear(x2, y2)) return NO_WAY;
+
+        int start = floor.cIy(y1)*width + floor.cIx(x1);
+        int goal = floor.cIy(y2)*width + floor.cIx(x2);
+        Long key = (long) start << 32 | goal;
+
+        long version;
+        synchronized (this) {
+            version = floor.getVersion();
+            if (version != cachedVersion) {
+                recent.clear();
+                cachedVersion = version;
+            }
+            // A changed floor invalidates every path at once.
+            Route r = recent.get(key);
+            if (r != null) {
+                hits++;
+                return r;
+            }
+            misses++;
+        }
+
+        int[] tiles = search(scratch.get(), start, goal);
+        Route found = tiles == null ? NO_WAY : new Route(tiles, 0);
+
+        synchronized (this) {
+            if (tiles == null) failures++;
+            if (capacity > 0 && version == cachedVersion) {
+                recent.put(key, found);
+                // A search that failed would fail the same way again.
+                for (int i = 0; tiles != null && i < tiles.length - 1; i++) {
+                    Long k = (long) tiles[i] << 32 | goal;
+                    if (!recent.containsKey(k)) recent.put(k, new Route(tiles, i + 1));
+                }
+            }
+            // The rest of an optimal path is an optimal path too.
+        }
+        return found;
+
+    }
+
+    // A* from start to goal, both floor indices.
+    private int[] search (Scratch s, int start, int goal) {
+
+        s.reset();
+        int gx = goal % width, gy = goal / width;
+
+        s.push(s.add(start, 0, h(start, gx, gy), NONE));
+        int expanded = 0;
+
+        while (s.heapSize > 0) {
+
+            int n = s.pop();
+            int tile = s.tile[n];
+            if (tile == goal) return s.trace(n);
+            if (++expanded > budget) return null;
+
+            int ix = tile % width, iy = tile / width;
+            for (int d = 0; d < 4; d++) {
+
+                int nx = ix + (d == 0 ? 1 : d == 2 ? -1 : 0);
+                int ny = iy + (d == 1 ? 1 : d == 3 ? -1 : 0);
+                if (!ug.tileClear(floor.iCx(nx), floor.iCy(ny))) continue;
+                // Off the floor counts as wall too.
+
+                int next = ny*width + nx;
+                int g = s.g[n] + 1;
+                int k = s.find(next);
+                if (k == NONE) {
+                    if (s.count == s.tile.length) return null;
+                    s.push(s.add(next, g, g + h(next, gx, gy), n));
+                } else if (s.pos[k] != CLOSED && g < s.g[k]) {
+                    s.f[k] -= s.g[k] - g;
+                    s.g[k] = g;
+                    s.parent[k] = n;
+                    s.up(s.pos[k]);
+                }
+
+            }
+
+        }
+
+        return null;
+
+    }
+
+    private int h (int tile, int gx, int gy) {
+        return Math.abs(tile % width - gx) + Math.abs(tile / width - gy);
+    }
+
+    /**
+     * One thread's working space: the tiles a search has touched, as nodes
+     * numbered in the order they were reached, a hash from tile to node, and
+     * the heap of open nodes.
+     */
+    private static class Scratch {
+
+        // By node.
+        final int[] tile;
+        final int[] g;
+        final int[] f;
+        final int[] parent;
+        final int[] pos;    // Place in heap, or CLOSED once taken out.
+        int count = 0;
+
+        // Open addressing, tile to node. Cleared by stamping, not filling.
+        final int[] keys;
+        final int[] vals;
+        final int[] stamps;
+        final int mask;
+        int stamp = 0;
+
+        final int[] heap;
+        int heapSize = 0;
+
+        Scratch (int budget) {
+
+            int nodes = 4*budget + 1;
+            // Each tile taken out adds at most three new ones.
+            tile = new int[nodes];
+            g = new int[nodes];
+            f = new int[nodes];
+            parent = new int[nodes];
+            pos = new int[nodes];
+            heap = new int[nodes];
+
+            int size = Integer.highestOneBit(2*nodes - 1) << 1;
+            keys = new int[size];
+            vals = new int[size];
+            stamps = new int[size];
+            mask = size - 1;
+
+        }
+
+        void reset () {
+            count = 0;
+            heapSize = 0;
+            if (++stamp == 0) {
+                Arrays.fill(stamps, 0);
+                stamp = 1;
+            }
+        }
+
+        int add (int t, int gCost, int fCost, int par) {
+            int n = count++;
+            tile[n] = t;
+            g[n] = gCost;
+            f[n] = fCost;
+            parent[n] = par;
+            int i = slot(t);
+            keys[i] = t;
+            vals[i] = n;
+            stamps[i] = stamp;
+            return n;
+        }
+
+        int find (int t) {
+            int i = slot(t);
+            return stamps[i] == stamp ? vals[i] : NONE;
+        }
+
+        // The hash slot holding t, or the empty one it would go in.
+        private int slot (int t) {
+            int i = (t * 0x9E3779B1) >>> 7 & mask;
+            while (stamps[i] == stamp && keys[i] != t) i = (i + 1) & mask;
+            return i;
+        }
+
+        int[] trace (int n) {
+            int len = 0;
+            for (int k = n; parent[k] != NONE; k = parent[k]) len++;
+            int[] out = new int[len];
+            for (int k = n; parent[k] != NONE; k = parent[k]) out[--len] = tile[k];
+            return out;
+        }
+
+        // Lower f first, and of those, the one further along.
+        private boolean before (int a, int b) {
+            return f[a] < f[b] || (f[a] == f[b] && g[a] > g[b]);
+        }
+
+        void push (int n) {
+            heap[heapSize] = n;
+            pos[n] = heapSize;
+            up(heapSize++);
+        }
+
+        int pop () {
+            int top = heap[0];
+            pos[top] = CLOSED;
+            int last = heap[--heapSize];
+            if (heapSize > 0) {
+                heap[0] = last;
+                pos[last] = 0;
+                down(0);
+            }
+            return top;
+        }
+
+        void up (int i) {
+            int n = heap[i];
+            while (i > 0) {
+                int p = (i - 1) >>> 1;
+                if (!before(n, heap[p])) break;
+                heap[i] = heap[p];
+                pos[heap[i]] = i;
+                i = p;
+            }
+            heap[i] = n;
+            pos[n] = i;
+        }
+
+        void down (int i) {
+            int n = heap[i];
+            while (true) {
+                int c = 2*i + 1;
+                if (c >= heapSize) break;
+                if (c + 1 < heapSize && before(heap[c + 1], heap[c])) c++;
+                if (!before(heap[c], n)) break;
+                heap[i] = heap[c];
+                pos[heap[i]] = i;
+                i = c;
+            }
+            heap[i] = n;
+            pos[n] = i;
+        }
+
+    }
+
+}
@@ -0,0 +1,59 @@
+import java.util.SplittableRandom;
+
+/**
+ * Hands out streams of random numbers, all worked out from one seed for the
+ * world, so the same seed plays out the same way every time.
+ *
+ * Every entity gets a stream of its own, keyed by the seed and the id it was
+ * spawned with, and so does every system that wants one, keyed by name.
+ * Nothing is shared between streams, so whatever draws from one needn't lock
+ * anything, and it makes no difference which thread does the drawing or in
+ * what order, as long as each stream is only drawn from by one thread at a
+ * time. The streams are SplittableRandoms, seeded from the world's seed and
+ * the key run through the same mixing SplittableRandom uses itself, so keys
+ * next to each other still give streams with nothing in common.
+ */
+public class RandomStreams {
+
+    // Kept apart, so entity 5 and a system whose name hashes to 5 differ.
+    private static final long ENTITY = 0x9E3779B97F4A7C15L;
+    private static final long SYSTEM = 0xD1B54A32D192ED03L;
+
+    private final long seed;
+
+    /**
+     * @param worldSeed Decides every stream.
+     */
+    public RandomStreams (long worldSeed) {
+        seed = worldSeed;
+    }
+
+    public long getSeed () {
+        return seed;
+    }
+
+    /**
+     * A new stream for an entity. The same every time for the same id.
+     * @param id The entity's id when it's spawned.
+     */
+    public SplittableRandom forEntity (int id) {
+        return new SplittableRandom(mix(mix(seed ^ ENTITY) + id));
+    }
+
+    /**
+     * A new stream for some part of the game. The same every time for the
+     * same name.
+     * @param name What it's for.
+     */
+    public SplittableRandom forSystem (String name) {
+        return new SplittableRandom(mix(mix(seed ^ SYSTEM) + name.hashCode()));
+    }
+
+    // Stafford's mix 13, as SplittableRandom mixes its own seeds.
+    private static long mix (long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
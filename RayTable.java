@@ -0,0 +1,149 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The tiles LosUtil.los looks at between two tiles, worked out once for each
+ * offset and kept.
+ *
+ * Which tiles los checks, and how much each one narrows the view if it's a
+ * wall, depend only on how far apart the two tiles are, not on where they
+ * are. So for every offset up to the range, the first time it's asked for,
+ * los's walk is done once on an empty floor and written down: each tile's
+ * offset from the left-hand end, packed into an int, and the bounds on
+ * occlusion it sets if it's a wall. A tile los would call standing square in
+ * the way gets bounds that always cross. Then a test is a scan down an int
+ * array, stopping at the first wall that shuts the line.
+ *
+ * Shared by every LosUtil, since nothing in it depends on the floor. Safe
+ * from any thread; two threads wanting the same template at once might both
+ * build it, which does no harm.
+ */
+public class RayTable {
+
+    private final int range;
+
+    // By (dy + range) * range + dx - 1. Each template starts with the span.
+    private final AtomicReferenceArray<int[]> templates;
+
+    /**
+     * @param range The biggest horizontal or vertical distance kept. Memory
+     * goes with its cube; 64 makes for a few megabytes when full.
+     */
+    public RayTable (int range) {
+        this.range = range;
+        templates = new AtomicReferenceArray<int[]>(range*(2*range + 1));
+    }
+
+    public int getRange () {
+        return range;
+    }
+
+    /**
+     * The template for a line to the right and up or down. Neither distance
+     * can be bigger than the range.
+     * @param dx From 1 to the range.
+     * @param dy From -range to range, but not 0.
+     * @return The span the aperture is measured against, then pairs of ints:
+     * a tile's offset, x in the high half and y in the low, and the bounds
+     * on occlusion it sets if it's a wall, lower in the high half and upper
+     * in the low.
+     */
+    public int[] get (int dx, int dy) {
+
+        int i = (dy + range)*range + dx - 1;
+        int[] t = templates.get(i);
+        if (t == null) {
+            t = build(dx, dy);
+            templates.set(i, t);
+        }
+        return t;
+
+    }
+
+    public static int offset (int dx, int dy) {
+        return dx << 16 | (dy & 0xFFFF);
+    }
+
+    public static int offsetX (int offset) {
+        return offset >> 16;
+    }
+
+    public static int offsetY (int offset) {
+        return (short) offset;
+    }
+
+    // Walks the line as los does, writing down each check instead.
+    private static int[] build (int dx, int dy) {
+
+        int k = gcd(dx, dy);
+        int ddx = dx/k, ddy = dy/k;
+        int ady = ddy > 0 ? ddy : -ddy;
+        int d = ddx + ady;
+        int step = ddy > 0 ? 1 : -1;
+
+        long[] checks = new long[k*(2*d + 1)];
+        int n = 0;
+        // Offset in the high half, bounds in the low, so sorting puts checks
+        // on the same tile together.
+
+        for (int i = 0; i < k; i++) {
+
+            int x = i*ddx, y = i*ddy;
+            if (i != 0) checks[n++] = check(x, y, d + 1, 0);
+            // Square in the way: bounds that can never be seen between.
+
+            int cur = ddx;
+            while (true) {
+
+                checks[n++] = check(x, y + step, 0, cur);
+                checks[n++] = check(x + 1, y, cur, d);
+
+                if (cur < ady) {
+                    y += step;
+                    cur += ddx;
+                } else if (cur > ady) {
+                    x++;
+                    cur -= ady;
+                } else break;
+
+            }
+
+        }
+
+        Arrays.sort(checks, 0, n);
+
+        int[] t = new int[1 + 2*n];
+        t[0] = d;
+        int len = 1;
+        for (int c = 0; c < n; c++) {
+            int off = (int) (checks[c] >>> 32);
+            int inf = (int) checks[c] >>> 16, sup = (int) checks[c] & 0xFFFF;
+            if (len > 1 && t[len - 2] == off) {
+                t[len - 1] = Math.max(t[len - 1] >>> 16, inf) << 16 | Math.min(t[len - 1] & 0xFFFF, sup);
+                continue;
+            }
+            // A tile checked more than once sets the tightest bounds of all.
+            t[len++] = off;
+            t[len++] = inf << 16 | sup;
+        }
+
+        return Arrays.copyOf(t, len);
+
+    }
+
+    private static long check (int x, int y, int inf, int sup) {
+        return (long) offset(x, y) << 32 | (inf << 16 | sup);
+    }
+
+    private static int gcd (int a, int b) {
+        a = a > 0 ? a : -a;
+        b = b > 0 ? b : -b;
+        while (b != 0) {
+            int r = a % b;
+            a = b;
+            b = r;
+        }
+        return a;
+    }
+
+}
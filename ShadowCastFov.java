@@ -0,0 +1,182 @@
+import java.util.Arrays;
+
+/**
+ * Symmetric recursive shadow-casting over the floor, one octant at a time.
+ *
+ * Each octant is scanned row by row outwards from the viewer. A row only
+ * covers the slopes that are still unshadowed, and a wall splits it, so the
+ * work done is proportional to the number of tiles actually seen rather than
+ * the area of the map. Floor tiles are revealed when their centre is in view
+ * (which keeps sight symmetric), walls whenever any part of them is.
+ *
+ * Fractional coverage is the share of a tile's width, measured at its row,
+ * that falls inside the unshadowed slopes. Tiles on the axes and diagonals
+ * belong to two octants and collect half of their coverage from each.
+ *
+ * With a ViewLimit, rows stop at its radius and octants wholly outside its
+ * cone aren't scanned at all. Within what's left, only tiles inside the
+ * limit are revealed, but walls outside it still cast their shadows.
+ */
+public class ShadowCastFov implements FovEngine {
+
+    /**
+     * Maps (column, depth) in octant space onto (dx, dy) on the floor, as
+     * dx = col*xx + depth*xy and dy = col*yx + depth*yy.
+     */
+    private static final int[][] OCTANTS = {
+        { 1,  0,  0,  1},
+        { 0,  1,  1,  0},
+        { 0, -1,  1,  0},
+        {-1,  0,  0,  1},
+        {-1,  0,  0, -1},
+        { 0, -1, -1,  0},
+        { 0,  1, -1,  0},
+        { 1,  0,  0, -1}
+    };
+
+    // Coverage this close to 1 is treated as CLEAR, to absorb float rounding.
+    private static final float EPSILON = 1e-5f;
+
+    private final WorldGrid floor;
+    private final int width;
+    private final int height;
+    private final int maxDepth;
+
+    // Scratch state for the scan in progress, so the recursion stays small.
+    private VisData out;
+    private int ox, oy;
+    private int xx, xy, yx, yy;
+    private ViewLimit limit;
+    private int depthLimit;
+    private boolean clip;
+
+    /**
+     * Tiles revealed by the scan in progress, as y*width + x. Only these
+     * need settling into CLEAR or PARTIAL once every octant is done.
+     */
+    private int[] revealed = new int[64];
+    private int numRevealed;
+
+    public ShadowCastFov (WorldGrid floor) {
+        this.floor = floor;
+        width = floor.getWidth();
+        height = floor.getHeight();
+        maxDepth = width > height ? width : height;
+    }
+
+    @Override
+    public void floorVis (int x, int y, VisData out) {
+        floorVis(x, y, ViewLimit.NONE, out);
+    }
+
+    @Override
+    public void floorVis (int x, int y, ViewLimit limit, VisData out) {
+
+        ox = floor.cIx(x);
+        oy = floor.cIy(y);
+
+        this.limit = limit;
+        depthLimit = Math.min(maxDepth, limit.getRadius());
+        clip = limit.hasCone() || limit.getMetric() == ViewLimit.Metric.EUCLIDEAN;
+        // Within the radius a square limit needs no checking tile by tile.
+
+        this.out = out;
+        out.reset(width, height,
+                (int) Math.max(0, (long) ox + limit.getMinDx()), (int) Math.max(0, (long) oy + limit.getMinDy()),
+                (int) Math.min(width - 1, (long) ox + limit.getMaxDx()), (int) Math.min(height - 1, (long) oy + limit.getMaxDy()),
+                Vis.BLOCKED);
+        out.fill(Vis.BLOCKED);
+        // Only the box around the limit is cleared; the rest is BLOCKED.
+        numRevealed = 0;
+
+        for (int[] oct : OCTANTS) {
+            xx = oct[0];
+            xy = oct[1];
+            yx = oct[2];
+            yy = oct[3];
+            if (!limit.overlaps(Math.atan2(yy, xy), Math.atan2(yx + yy, xx + xy))) continue;
+            // From the octant's first column to its last.
+            scan(1, 0, 1, 1, 1);
+        }
+
+        for (int i = 0; i < numRevealed; i++) {
+            int tx = revealed[i] % width, ty = revealed[i] / width;
+            if (out.fraction(tx, ty) >= 1 - EPSILON) {
+                out.set(tx, ty, Vis.CLEAR);
+                out.setFraction(tx, ty, 0);
+            }
+        }
+        // Settle what was revealed; everything else stays BLOCKED.
+
+        out.set(ox, oy, Vis.CLEAR);
+        out.setFraction(ox, oy, 0);
+        this.out = null;
+        this.limit = null;
+
+    }
+
+    /**
+     * Scans one row of the current octant and recurses into the rows behind it.
+     * Slopes are kept as exact fractions so tile boundaries never round the
+     * wrong way.
+     * @param depth The distance of the row from the viewer.
+     * @param sn Numerator of the start slope.
+     * @param sd Denominator of the start slope.
+     * @param en Numerator of the end slope.
+     * @param ed Denominator of the end slope.
+     */
+    private void scan (int depth, long sn, long sd, long en, long ed) {
+
+        if (depth > depthLimit) return;
+
+        int minCol = (int) Math.floorDiv(2*depth*sn + sd, 2*sd);      // depth*start, ties up.
+        int maxCol = (int) -Math.floorDiv(ed - 2*depth*en, 2*ed);     // depth*end, ties down.
+
+        boolean first = true, prevWall = false;
+
+        for (int col = minCol; col <= maxCol; col++) {
+
+            int tx = ox + col*xx + depth*xy;
+            int ty = oy + col*yx + depth*yy;
+            boolean inside = tx >= 0 && tx < width && ty >= 0 && ty < height;
+            boolean wall = !inside || floor.get(tx, ty) != 0;
+            // Everything past the edge of the floor counts as wall.
+
+            if (inside && (!clip || limit.contains(tx - ox, ty - oy))) {
+                double lo = Math.max((2*col - 1) / (2d*depth), (double) sn / sd);
+                double hi = Math.min((2*col + 1) / (2d*depth), (double) en / ed);
+                if (hi > lo) out.addFraction(tx, ty, (hi - lo) * depth);
+                // The visible share of the tile's width at this depth.
+
+                if (wall || (col*sd >= depth*sn && col*ed <= depth*en)) reveal(tx, ty);
+            }
+
+            if (!first && prevWall && !wall) {
+                sn = 2*col - 1;
+                sd = 2*depth;
+                // Coming out from behind a wall narrows the rest of the row.
+            } else if (!first && !prevWall && wall) {
+                scan(depth + 1, sn, sd, 2*col - 1, 2*depth);
+                // Going into a wall closes off a gap; look through it.
+            }
+
+            first = false;
+            prevWall = wall;
+
+        }
+
+        if (!first && !prevWall) scan(depth + 1, sn, sd, en, ed);
+
+    }
+
+    private void reveal (int tx, int ty) {
+
+        if (out.get(tx, ty) != Vis.BLOCKED) return;
+        out.set(tx, ty, Vis.PARTIAL);
+
+        if (numRevealed == revealed.length) revealed = Arrays.copyOf(revealed, 2*numRevealed);
+        revealed[numRevealed++] = ty*width + tx;
+
+    }
+
+}
@@ -0,0 +1,197 @@
+import java.util.Arrays;
+
+/**
+ * Finds the entities near a point without looking at the whole floor or
+ * every entity.
+ *
+ * The floor is cut into square buckets, and each bucket keeps a linked list
+ * of the entities in it, threaded through arrays indexed by entity id, less
+ * its generation (see IndexUtil.keyOf).
+ * Adding, moving and removing an entity are constant time, and a query only
+ * visits the buckets that overlap it. Results are handed to a Visitor one at
+ * a time rather than collected, so queries allocate nothing.
+ */
+public class SpatialIndex {
+
+    /**
+     * Gets each entity a query finds.
+     */
+    public interface Visitor {
+        /**
+         * @param id The entity's id.
+         * @param x Its x coordinate.
+         * @param y Its y coordinate.
+         */
+        public void visit (int id, int x, int y);
+    }
+
+    private static final int NONE = -1;
+
+    private final WorldGrid floor;
+    private final IndexUtil ux;
+    private final int bucketBits;
+    private final int bucketsX;
+    private final int bucketsY;
+
+    // The first entity in each bucket.
+    private final int[] heads;
+
+    // By key. Bucket is NONE for anything not in the index.
+    private int[] ids = new int[0];
+    private int[] next = new int[0];
+    private int[] prev = new int[0];
+    private int[] bucket = new int[0];
+    private int[] xs = new int[0];
+    private int[] ys = new int[0];
+
+    private int size = 0;
+
+    /**
+     * @param floor The floor, for its size and coordinates.
+     * @param indexUtil For telling the types of entities apart.
+     * @param bucketBits Buckets are 1 << bucketBits tiles on a side.
+     */
+    public SpatialIndex (WorldGrid floor, IndexUtil indexUtil, int bucketBits) {
+        this.floor = floor;
+        ux = indexUtil;
+        this.bucketBits = bucketBits;
+        bucketsX = ((floor.getWidth() - 1) >>> bucketBits) + 1;
+        bucketsY = ((floor.getHeight() - 1) >>> bucketBits) + 1;
+        heads = new int[bucketsX*bucketsY];
+        Arrays.fill(heads, NONE);
+    }
+
+    public void insert (int id, int x, int y) {
+
+        int k = ux.keyOf(id);
+        if (k >= bucket.length) grow(k + 1);
+        if (bucket[k] != NONE) unlink(k);
+        else size++;
+        ids[k] = id;
+        xs[k] = x;
+        ys[k] = y;
+        link(k, bucketOf(x, y));
+
+    }
+
+    // Moves an entity that's already in the index.
+    public void move (int id, int x, int y) {
+
+        int k = ux.keyOf(id);
+        int b = bucketOf(x, y);
+        xs[k] = x;
+        ys[k] = y;
+        if (b == bucket[k]) return;
+        unlink(k);
+        link(k, b);
+
+    }
+
+    public void remove (int id) {
+
+        int k = ux.keyOf(id);
+        if (k >= bucket.length || bucket[k] == NONE || ids[k] != id) return;
+        unlink(k);
+        bucket[k] = NONE;
+        size--;
+
+    }
+
+    public void clear () {
+
+        Arrays.fill(heads, NONE);
+        Arrays.fill(bucket, NONE);
+        size = 0;
+
+    }
+
+    public int size () {
+        return size;
+    }
+
+    /**
+     * Visits every entity within a distance of a tile, as the crow flies.
+     * @param x The x coordinate of the middle.
+     * @param y The y coordinate of the middle.
+     * @param r The distance.
+     * @param type Only visits entities of this type, or any type if null. The
+     * player isn't any EntType, so is only visited when this is null.
+     * @param v Gets each entity found.
+     * @return How many were visited.
+     */
+    public int withinRadius (int x, int y, int r, EntType type, Visitor v) {
+        return query(x - r, y - r, x + r, y + r, x, y, (long) r*r, type, v);
+    }
+
+    /**
+     * Visits every entity in a rectangle, edges included.
+     * @param type As for withinRadius.
+     * @return How many were visited.
+     */
+    public int withinRect (int x1, int y1, int x2, int y2, EntType type, Visitor v) {
+        return query(Math.min(x1, x2), Math.min(y1, y2), Math.max(x1, x2), Math.max(y1, y2), 0, 0, -1, type, v);
+    }
+
+    // Visits the entities in a rectangle, and within a distance of (cx, cy)
+    // if r2 isn't negative.
+    private int query (int x1, int y1, int x2, int y2, int cx, int cy, long r2, EntType type, Visitor v) {
+
+        int bx1 = Math.max(0, floor.cIx(x1)) >> bucketBits;
+        int by1 = Math.max(0, floor.cIy(y1)) >> bucketBits;
+        int bx2 = Math.min(floor.getWidth() - 1, floor.cIx(x2)) >> bucketBits;
+        int by2 = Math.min(floor.getHeight() - 1, floor.cIy(y2)) >> bucketBits;
+
+        int found = 0;
+        for (int by = by1; by <= by2; by++)
+            for (int bx = bx1; bx <= bx2; bx++)
+                for (int k = heads[by*bucketsX + bx]; k != NONE; k = next[k]) {
+                    int x = xs[k], y = ys[k];
+                    if (x < x1 || x > x2 || y < y1 || y > y2) continue;
+                    if (r2 >= 0 && (long) (x - cx)*(x - cx) + (long) (y - cy)*(y - cy) > r2) continue;
+                    if (type != null && ux.typeOf(k) != type.ix) continue;
+                    v.visit(ids[k], x, y);
+                    found++;
+                }
+
+        return found;
+
+    }
+
+    private int bucketOf (int x, int y) {
+        return (floor.cIy(y) >> bucketBits)*bucketsX + (floor.cIx(x) >> bucketBits);
+    }
+
+    private void link (int k, int b) {
+
+        bucket[k] = b;
+        prev[k] = NONE;
+        next[k] = heads[b];
+        if (heads[b] != NONE) prev[heads[b]] = k;
+        heads[b] = k;
+
+    }
+
+    private void unlink (int k) {
+
+        int b = bucket[k];
+        if (prev[k] != NONE) next[prev[k]] = next[k];
+        else heads[b] = next[k];
+        if (next[k] != NONE) prev[next[k]] = prev[k];
+
+    }
+
+    private void grow (int min) {
+
+        int n = Math.max(min, 2*bucket.length);
+        int old = bucket.length;
+        ids = Arrays.copyOf(ids, n);
+        next = Arrays.copyOf(next, n);
+        prev = Arrays.copyOf(prev, n);
+        xs = Arrays.copyOf(xs, n);
+        ys = Arrays.copyOf(ys, n);
+        bucket = Arrays.copyOf(bucket, n);
+        Arrays.fill(bucket, old, n, NONE);
+
+    }
+
+}
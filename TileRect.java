@@ -0,0 +1,85 @@
+/**
+ * A rectangle of tiles, by coordinates, edges included. What a DrawUtil edit
+ * reports having touched, so whatever keeps work done on the floor can tell
+ * whether its own part of it changed.
+ *
+ * Immutable. EMPTY holds no tiles at all, and anything unioned with it comes
+ * back unchanged.
+ */
+public class TileRect {
+
+    public static final TileRect EMPTY = new TileRect(0, 0, -1, -1);
+
+    private final int x1;
+    private final int y1;
+    private final int x2;
+    private final int y2;
+
+    /**
+     * @param x1 The left column.
+     * @param y1 The bottom row.
+     * @param x2 The right column. Less than x1 for an empty rectangle.
+     * @param y2 The top row. Less than y1 for an empty rectangle.
+     */
+    public TileRect (int x1, int y1, int x2, int y2) {
+        this.x1 = x1;
+        this.y1 = y1;
+        this.x2 = x2;
+        this.y2 = y2;
+    }
+
+    public int getX1 () {
+        return x1;
+    }
+
+    public int getY1 () {
+        return y1;
+    }
+
+    public int getX2 () {
+        return x2;
+    }
+
+    public int getY2 () {
+        return y2;
+    }
+
+    public boolean isEmpty () {
+        return x2 < x1 || y2 < y1;
+    }
+
+    public boolean contains (int x, int y) {
+        return x >= x1 && x <= x2 && y >= y1 && y <= y2;
+    }
+
+    // Whether any tile is in both.
+    public boolean intersects (TileRect r) {
+        return !isEmpty() && !r.isEmpty() && r.x1 <= x2 && r.x2 >= x1 && r.y1 <= y2 && r.y2 >= y1;
+    }
+
+    // The smallest rectangle holding both.
+    public TileRect union (TileRect r) {
+        if (r.isEmpty()) return this;
+        if (isEmpty()) return r;
+        return new TileRect(Math.min(x1, r.x1), Math.min(y1, r.y1), Math.max(x2, r.x2), Math.max(y2, r.y2));
+    }
+
+    @Override
+    public boolean equals (Object o) {
+        if (!(o instanceof TileRect)) return false;
+        TileRect r = (TileRect) o;
+        if (isEmpty() || r.isEmpty()) return isEmpty() && r.isEmpty();
+        return x1 == r.x1 && y1 == r.y1 && x2 == r.x2 && y2 == r.y2;
+    }
+
+    @Override
+    public int hashCode () {
+        return isEmpty() ? 0 : ((x1*31 + y1)*31 + x2)*31 + y2;
+    }
+
+    @Override
+    public String toString () {
+        return isEmpty() ? "(empty)" : "(" + x1 + ", " + y1 + ")-(" + x2 + ", " + y2 + ")";
+    }
+
+}
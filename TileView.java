@@ -0,0 +1,172 @@
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.swing.JComponent;
+
+/**
+ * Draws FloorFrames onto the screen, a cell at a time, from pre-drawn glyphs.
+ *
+ * Every character, in every colour, is drawn once into a strip of all 256
+ * grey levels the first time it's needed, and cells are copied out of the
+ * strips from then on. Frames are drawn into an image kept between them,
+ * and only the cells that differ from the last frame are redrawn; only the
+ * area around those is then repainted. So a turn in which one thing moves
+ * costs a couple of cells, however big the floor.
+ */
+public class TileView extends JComponent {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Color[] COLOURS = {Color.WHITE, Color.RED};
+
+    private final Font font;
+    private final int cellWidth;
+    private final int cellHeight;
+    private final int ascent;
+
+    // The strip for a character and colour, keyed by glyph << 8 | colour.
+    private final HashMap<Integer, BufferedImage> atlas = new HashMap<>();
+
+    private int cols = 0;
+    private int rows = 0;
+    private int[] shown = new int[0];
+    private BufferedImage screen = null;
+
+    private long cellsDrawn = 0;
+
+    public TileView (Font font) {
+
+        this.font = font;
+        FontMetrics fm = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB).getGraphics().getFontMetrics(font);
+        cellWidth = fm.charWidth('M')*2;
+        // As wide as a character and the space after it.
+        cellHeight = fm.getHeight();
+        ascent = fm.getAscent();
+
+        setOpaque(true);
+        setBackground(Color.BLACK);
+
+    }
+
+    /**
+     * Sizes the view for a floor, and forgets what was on it.
+     * @param columns The floor's width.
+     * @param rowCount The floor's height.
+     */
+    public synchronized void setGridSize (int columns, int rowCount) {
+
+        cols = columns;
+        rows = rowCount;
+        shown = new int[cols*rows];
+        Arrays.fill(shown, FloorFrame.BLANK);
+        screen = new BufferedImage(Math.max(1, cols*cellWidth), Math.max(1, rows*cellHeight), BufferedImage.TYPE_INT_RGB);
+        setPreferredSize(new Dimension(cols*cellWidth, rows*cellHeight));
+        repaint();
+
+    }
+
+    /**
+     * Shows a frame, redrawing only the cells that changed since the last.
+     * Can be called from any thread.
+     * @param frame The frame. Resizes the view first if it's a new size.
+     */
+    public void show (FloorFrame frame) {
+
+        Rectangle dirty;
+
+        synchronized (this) {
+
+            if (frame.getWidth() != cols || frame.getHeight() != rows)
+                setGridSize(frame.getWidth(), frame.getHeight());
+
+            int minCol = cols, maxCol = -1, minRow = rows, maxRow = -1;
+            Graphics g = screen.getGraphics();
+
+            for (int row = 0; row < rows; row++)
+                for (int col = 0; col < cols; col++) {
+                    int cell = frame.get(col, row);
+                    if (cell == shown[row*cols + col]) continue;
+                    shown[row*cols + col] = cell;
+                    drawCell(g, col, row, cell);
+                    minCol = Math.min(minCol, col);
+                    maxCol = Math.max(maxCol, col);
+                    minRow = Math.min(minRow, row);
+                    maxRow = Math.max(maxRow, row);
+                }
+
+            g.dispose();
+            if (maxCol < 0) return;
+            dirty = new Rectangle(minCol*cellWidth, minRow*cellHeight,
+                    (maxCol - minCol + 1)*cellWidth, (maxRow - minRow + 1)*cellHeight);
+
+        }
+
+        repaint(dirty);
+
+    }
+
+    // How many cells have been drawn, for checking that unchanged ones aren't.
+    public synchronized long getCellsDrawn () {
+        return cellsDrawn;
+    }
+
+    @Override
+    protected synchronized void paintComponent (Graphics g) {
+
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        g.setColor(Color.BLACK);
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        if (screen == null) return;
+
+        int x = (getWidth() - screen.getWidth())/2, y = (getHeight() - screen.getHeight())/2;
+        g.drawImage(screen, x, y, null);
+        // Centered, as the label was.
+
+    }
+
+    private void drawCell (Graphics g, int col, int row, int cell) {
+
+        int x = col*cellWidth, y = row*cellHeight;
+        int shade = FloorFrame.shade(cell);
+        BufferedImage strip = strip(FloorFrame.glyph(cell), FloorFrame.colour(cell));
+        g.drawImage(strip, x, y, x + cellWidth, y + cellHeight,
+                shade*cellWidth, 0, (shade + 1)*cellWidth, cellHeight, null);
+        cellsDrawn++;
+
+    }
+
+    // Finds or draws the strip of a character in every grey level of a colour.
+    private BufferedImage strip (char glyph, int colour) {
+
+        Integer key = glyph << 8 | colour;
+        BufferedImage strip = atlas.get(key);
+        if (strip != null) return strip;
+
+        strip = new BufferedImage(256*cellWidth, cellHeight, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = strip.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(font);
+        Color base = COLOURS[colour < COLOURS.length ? colour : 0];
+        String s = String.valueOf(glyph);
+        for (int shade = 0; shade < 256; shade++) {
+            g.setColor(new Color(base.getRed()*shade/255, base.getGreen()*shade/255, base.getBlue()*shade/255));
+            g.drawString(s, shade*cellWidth, ascent);
+        }
+        g.dispose();
+
+        atlas.put(key, strip);
+        return strip;
+
+    }
+
+}
@@ -0,0 +1,245 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the game's turns one at a time on a thread of its own, in the order
+ * the moves came in.
+ *
+ * Moves wait in a bounded queue. A fresh key press is never dropped: if the
+ * queue is full, whoever submits it waits for room. A key held down and
+ * repeating is different -- its repeats are only queued when nothing else is
+ * waiting, so holding a key walks at the speed turns can run instead of
+ * piling up a backlog that keeps walking after it's let go. When there's
+ * nothing to do, the thread sleeps until there is.
+ *
+ * The queue is a pair of arrays rather than a queue of objects, so taking
+ * input allocates nothing. Each move is stamped when it's submitted, and the
+ * time from then until its turn has been shown is kept as the latency.
+ *
+ * A turn that throws is logged and skipped, and the next one runs as usual.
+ * If the thread dies anyway, submitting stops waiting and turns moves down.
+ */
+public class TurnExecutor {
+
+    private static final Logger LOG = Logger.getLogger(TurnExecutor.class.getName());
+
+    private final Move[] moves;
+    private final long[] stamps;
+    private int head = 0;   // The next move to run.
+    private int count = 0;  // How many are waiting.
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile boolean busy = false;
+
+    private volatile long lastLatency = 0;
+    private long totalLatency = 0;
+    private long turnsRun = 0;
+    private long coalesced = 0;
+
+    /**
+     * Starts the thread, which then waits for moves.
+     * @param capacity How many moves can wait at once.
+     */
+    public TurnExecutor (int capacity) {
+
+        moves = new Move[capacity];
+        stamps = new long[capacity];
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run () {
+                loop();
+            }
+        }, "Turns");
+        thread.start();
+
+    }
+
+    /**
+     * Queues a move.
+     * @param move The move.
+     * @param repeat Whether it's a repeat of a key being held down. Repeats
+     * are dropped if anything is already waiting.
+     * @return Whether the move was queued.
+     * @throws InterruptedException If interrupted while waiting for room.
+     */
+    public boolean submit (Move move, boolean repeat) throws InterruptedException {
+
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+
+            if (repeat && (count > 0 || busy)) {
+                coalesced++;
+                return false;
+            }
+            while (count == moves.length && running) notFull.await();
+            if (!running) return false;
+
+            int tail = (head + count) % moves.length;
+            moves[tail] = move;
+            stamps[tail] = now;
+            count++;
+            notEmpty.signal();
+            return true;
+
+        } finally {
+            lock.unlock();
+        }
+
+    }
+
+    /**
+     * Stops taking moves, runs the ones already waiting, and waits for the
+     * last of them to finish.
+     */
+    public void shutdown () throws InterruptedException {
+
+        lock.lock();
+        try {
+            running = false;
+            notEmpty.signal();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        thread.join();
+
+    }
+
+    // How many moves are waiting.
+    public int getQueueDepth () {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Whether a turn is running right now.
+    public boolean isBusy () {
+        return busy;
+    }
+
+    // From submitting the last move run to its turn having been shown.
+    public long getLastLatencyNanos () {
+        return lastLatency;
+    }
+
+    public long getMeanLatencyNanos () {
+        lock.lock();
+        try {
+            return turnsRun == 0 ? 0 : totalLatency / turnsRun;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getTurnsRun () {
+        lock.lock();
+        try {
+            return turnsRun;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // How many repeats were dropped because other moves were waiting.
+    public long getCoalesced () {
+        lock.lock();
+        try {
+            return coalesced;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void loop () {
+
+        try {
+            while (true) {
+
+                Move move;
+                long stamp;
+
+                lock.lock();
+                try {
+                    while (count == 0) {
+                        if (!running) return;
+                        notEmpty.awaitUninterruptibly();
+                    }
+                    move = moves[head];
+                    stamp = stamps[head];
+                    moves[head] = null;
+                    head = (head + 1) % moves.length;
+                    count--;
+                    busy = true;
+                    notFull.signal();
+                } finally {
+                    lock.unlock();
+                }
+
+                try {
+                    GameShell.step(move);
+                } catch (RuntimeException e) {
+                    LOG.log(Level.SEVERE, "The turn for " + move + " failed; going on to the next.", e);
+                } finally {
+                    long latency = System.nanoTime() - stamp;
+                    lock.lock();
+                    try {
+                        busy = false;
+                        lastLatency = latency;
+                        totalLatency += latency;
+                        turnsRun++;
+                        if (count == 0) idle.signalAll();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+
+            }
+        } finally {
+            lock.lock();
+            try {
+                running = false;
+                notFull.signalAll();
+                idle.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            // However the thread ends, nothing more will run, so nobody
+            // should be left waiting for room or for the queue to empty.
+        }
+
+    }
+
+    /**
+     * Waits until every move submitted so far has been run, or the time is up.
+     * @return Whether everything was run.
+     */
+    public boolean awaitIdle (long timeout, TimeUnit unit) throws InterruptedException {
+
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (count > 0 || busy) {
+                if (nanos <= 0) return false;
+                nanos = idle.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+
+    }
+
+}
@@ -0,0 +1,206 @@
+/**
+ * How far, and which way, a viewer can see: a radius, measured straight out
+ * or square, and optionally a cone around the way they're facing. A FovEngine
+ * given one only works out the tiles inside it, and leaves the rest BLOCKED.
+ *
+ * A tile is inside if its centre is. Directions are angles in radians,
+ * anticlockwise from the positive x axis, so 0 is right and PI/2 is up.
+ * Immutable, and equal to any other limit with the same numbers, so it can
+ * be part of a cache key.
+ */
+public class ViewLimit {
+
+    public enum Metric {
+        /** As the crow flies: a circle. */
+        EUCLIDEAN,
+        /** The most steps along either axis: a square. */
+        CHEBYSHEV
+    }
+
+    /**
+     * No limit at all. The radius is as big as an int gets, which no floor
+     * comes near.
+     */
+    public static final ViewLimit NONE = new ViewLimit(Integer.MAX_VALUE, Metric.CHEBYSHEV);
+
+    // Slack in the cone test, so tiles exactly on its edges count as inside.
+    private static final double EPSILON = 1e-9;
+
+    private final int radius;
+    private final Metric metric;
+    private final boolean cone;
+    private final double direction;
+    private final double halfAngle;
+
+    // The unit vector the cone faces, and the cosine of its half-angle.
+    private final double fx;
+    private final double fy;
+    private final double cosHalf;
+
+    // The smallest box, relative to the viewer, holding every tile inside.
+    private final int minDx;
+    private final int maxDx;
+    private final int minDy;
+    private final int maxDy;
+
+    /**
+     * A limit on distance alone, in every direction.
+     * @param radius The furthest a tile can be and still be seen.
+     * @param metric How that's measured.
+     */
+    public ViewLimit (int radius, Metric metric) {
+        this(radius, metric, 0, Math.PI);
+    }
+
+    /**
+     * A limit on distance and direction both.
+     * @param radius The furthest a tile can be and still be seen.
+     * @param metric How that's measured.
+     * @param direction The way the viewer faces.
+     * @param halfAngle How far to either side of that they can see. PI or
+     * more is all the way round.
+     */
+    public ViewLimit (int radius, Metric metric, double direction, double halfAngle) {
+
+        if (radius < 0) throw new IllegalArgumentException("radius " + radius);
+
+        this.radius = radius;
+        this.metric = metric;
+        cone = halfAngle < Math.PI;
+        this.direction = cone ? wrap(direction) : 0;
+        this.halfAngle = cone ? Math.max(halfAngle, 0) : Math.PI;
+        fx = Math.cos(this.direction);
+        fy = Math.sin(this.direction);
+        cosHalf = Math.cos(this.halfAngle);
+
+        if (!cone) {
+            minDx = minDy = -radius;
+            maxDx = maxDy = radius;
+            return;
+        }
+
+        double[] edges = {this.direction - this.halfAngle, this.direction + this.halfAngle};
+        double x1 = 0, x2 = 0, y1 = 0, y2 = 0;
+        for (int k = -2; k < 8; k++) {
+            double a = k < 0 ? edges[k + 2] : k*Math.PI/4;
+            if (k >= 0 && !facing(a)) continue;
+            double vx = Math.cos(a), vy = Math.sin(a);
+            double scale = metric == Metric.CHEBYSHEV ? radius/Math.max(Math.abs(vx), Math.abs(vy)) : radius;
+            x1 = Math.min(x1, vx*scale);
+            x2 = Math.max(x2, vx*scale);
+            y1 = Math.min(y1, vy*scale);
+            y2 = Math.max(y2, vy*scale);
+        }
+        // The point furthest out is either on one of the cone's edges, or
+        // straight along an axis or diagonal, if that's inside it.
+
+        minDx = Math.max(-radius, (int) Math.floor(x1));
+        maxDx = Math.min(radius, (int) Math.ceil(x2));
+        minDy = Math.max(-radius, (int) Math.floor(y1));
+        maxDy = Math.min(radius, (int) Math.ceil(y2));
+
+    }
+
+    /**
+     * Whether a tile can be seen, as far as distance and direction go.
+     * @param dx Its x coordinate less the viewer's.
+     * @param dy Its y coordinate less the viewer's.
+     */
+    public boolean contains (int dx, int dy) {
+
+        if (dx == 0 && dy == 0) return true;
+
+        long ax = Math.abs((long) dx), ay = Math.abs((long) dy);
+        if (metric == Metric.CHEBYSHEV ? Math.max(ax, ay) > radius : ax*ax + ay*ay > (long) radius*radius)
+            return false;
+
+        return !cone || dx*fx + dy*fy >= cosHalf*Math.sqrt((double) ax*ax + (double) ay*ay) - EPSILON;
+
+    }
+
+    /**
+     * Whether any of the directions between two others is inside the cone.
+     * Always true if there's no cone.
+     * @param from One edge of the arc.
+     * @param to The other, less than PI round from the first either way.
+     */
+    public boolean overlaps (double from, double to) {
+
+        if (!cone) return true;
+        double arc = wrap(to - from)/2;
+        double mid = from + arc;
+        return Math.abs(wrap(mid - direction)) <= halfAngle + Math.abs(arc) + EPSILON;
+        // Two arcs meet if their middles are no further apart than their
+        // half-widths together.
+
+    }
+
+    public int getRadius () {
+        return radius;
+    }
+
+    public Metric getMetric () {
+        return metric;
+    }
+
+    public boolean hasCone () {
+        return cone;
+    }
+
+    public double getDirection () {
+        return direction;
+    }
+
+    public double getHalfAngle () {
+        return halfAngle;
+    }
+
+    // The box holding every tile inside, relative to the viewer.
+    public int getMinDx () {
+        return minDx;
+    }
+
+    public int getMaxDx () {
+        return maxDx;
+    }
+
+    public int getMinDy () {
+        return minDy;
+    }
+
+    public int getMaxDy () {
+        return maxDy;
+    }
+
+    @Override
+    public boolean equals (Object o) {
+
+        if (!(o instanceof ViewLimit)) return false;
+        ViewLimit l = (ViewLimit) o;
+        return radius == l.radius && metric == l.metric && cone == l.cone
+                && direction == l.direction && halfAngle == l.halfAngle;
+
+    }
+
+    @Override
+    public int hashCode () {
+
+        long bits = Double.doubleToLongBits(direction)*31 + Double.doubleToLongBits(halfAngle);
+        return (radius*31 + metric.ordinal())*31 + (int) (bits ^ bits >>> 32);
+
+    }
+
+    // Whether the direction a is inside the cone.
+    private boolean facing (double a) {
+        return Math.abs(wrap(a - direction)) <= halfAngle + EPSILON;
+    }
+
+    // An angle brought into -PI to PI.
+    private static double wrap (double a) {
+        a %= 2*Math.PI;
+        if (a > Math.PI) a -= 2*Math.PI;
+        else if (a < -Math.PI) a += 2*Math.PI;
+        return a;
+    }
+
+}
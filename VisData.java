@@ -1,11 +1,183 @@
+import java.util.Arrays;
+
+/**
+ * The visibility of every tile on the floor from one viewpoint.
+ *
+ * Held flat and row-major (index = y*width + x, with indices as in the floor
+ * grid) in one byte per tile for the ternary state and one float per tile
+ * for the visible fraction of PARTIAL tiles. A VisData is meant to be kept
+ * and refilled turn after turn; reset only reallocates when the floor grows.
+ *
+ * It can also be reset to a box: tiles outside it all take one visibility,
+ * and only the box is left to be worked out. The box is remembered, so the
+ * next reset and copy only touch it and the new one, and a view limited to a
+ * small part of a big floor costs what that part does.
+ */
 public class VisData {
-    
-    public Vis[][] ternary;
-    public double[][] fractional;
-    
-    public VisData (Vis[][] t, double[][] f) {
-        ternary = t;
-        fractional = f;
-    }
-    
+
+    private static final Vis[] VIS = Vis.values();
+
+    private int width;
+    private int height;
+
+    private byte[] ternary = new byte[0];
+    private float[] fractional = new float[0];
+    // Ternary holds 0 for tiles not yet decided, otherwise 1 + the Vis ordinal.
+
+    // Outside this box, by index, every tile is rest with no fraction.
+    private int boxX1, boxY1, boxX2, boxY2;
+    private byte rest = 0;
+
+    public VisData () {
+    }
+
+    public VisData (int width, int height) {
+        reset(width, height);
+    }
+
+    /**
+     * Sizes the buffer for a floor and marks every tile undecided, with no
+     * visible fraction.
+     * @param w The width of the floor.
+     * @param h The height of the floor.
+     */
+    public void reset (int w, int h) {
+
+        width = w;
+        height = h;
+
+        if (ternary.length < w*h) {
+            ternary = new byte[w*h];
+            fractional = new float[w*h];
+        } else {
+            Arrays.fill(ternary, 0, w*h, (byte) 0);
+            Arrays.fill(fractional, 0, w*h, 0f);
+        }
+        setBox(0, 0, w - 1, h - 1, (byte) 0);
+
+    }
+
+    /**
+     * Sizes the buffer for a floor, marks every tile in a box undecided, and
+     * every tile outside it the same. Tiles outside the box mustn't be set
+     * until the next reset.
+     * @param w The width of the floor.
+     * @param h The height of the floor.
+     * @param x1 The x index of the box's left column.
+     * @param y1 The y index of its bottom row.
+     * @param x2 The x index of its right column.
+     * @param y2 The y index of its top row.
+     * @param outside What every tile outside the box is.
+     */
+    public void reset (int w, int h, int x1, int y1, int x2, int y2, Vis outside) {
+
+        byte code = (byte) (outside.ordinal() + 1);
+
+        if (w != width || h != height || code != rest || ternary.length < w*h) {
+            reset(w, h);
+            Arrays.fill(ternary, 0, w*h, code);
+        } else if (boxX1 < x1 || boxY1 < y1 || boxX2 > x2 || boxY2 > y2) {
+            clearBox(boxX1, boxY1, boxX2, boxY2, code);
+        }
+        // The old box is all that could differ from outside, and if it's
+        // inside the new one it's about to be cleared anyway.
+
+        clearBox(x1, y1, x2, y2, (byte) 0);
+        setBox(x1, y1, x2, y2, code);
+
+    }
+
+    // Marks every tile in the box with the same visibility. After a plain
+    // reset, that's every tile.
+    public void fill (Vis v) {
+        byte code = (byte) (v.ordinal() + 1);
+        for (int y = boxY1; y <= boxY2; y++) Arrays.fill(ternary, y*width + boxX1, y*width + boxX2 + 1, code);
+    }
+
+    // Marks every tile in the box not yet decided with the same visibility.
+    public void fillUndecided (Vis v) {
+        byte code = (byte) (v.ordinal() + 1);
+        for (int y = boxY1; y <= boxY2; y++)
+            for (int i = y*width + boxX1; i <= y*width + boxX2; i++) if (ternary[i] == 0) ternary[i] = code;
+    }
+
+    public void copyFrom (VisData other) {
+
+        if (ternary.length < other.width*other.height) {
+            ternary = new byte[other.width*other.height];
+            fractional = new float[other.width*other.height];
+        } else if (width == other.width && height == other.height && rest == other.rest) {
+            if (boxX1 != other.boxX1 || boxY1 != other.boxY1 || boxX2 != other.boxX2 || boxY2 != other.boxY2)
+                copyBox(other, boxX1, boxY1, boxX2, boxY2);
+            copyBox(other, other.boxX1, other.boxY1, other.boxX2, other.boxY2);
+            setBox(other.boxX1, other.boxY1, other.boxX2, other.boxY2, other.rest);
+            return;
+        }
+        // Outside both boxes, the two are already the same.
+        width = other.width;
+        height = other.height;
+        System.arraycopy(other.ternary, 0, ternary, 0, width*height);
+        System.arraycopy(other.fractional, 0, fractional, 0, width*height);
+        setBox(other.boxX1, other.boxY1, other.boxX2, other.boxY2, other.rest);
+
+    }
+
+    public int getWidth () {
+        return width;
+    }
+
+    public int getHeight () {
+        return height;
+    }
+
+    /**
+     * @param x The x index (not coordinate) of the tile.
+     * @param y The y index of the tile.
+     * @return The tile's visibility, or null if it hasn't been decided.
+     */
+    public Vis get (int x, int y) {
+        int code = ternary[y*width + x];
+        return code == 0 ? null : VIS[code - 1];
+    }
+
+    public void set (int x, int y, Vis v) {
+        ternary[y*width + x] = (byte) (v.ordinal() + 1);
+    }
+
+    // The visible fraction of a PARTIAL tile. Meaningless for the others.
+    public float fraction (int x, int y) {
+        return fractional[y*width + x];
+    }
+
+    public void setFraction (int x, int y, double f) {
+        fractional[y*width + x] = (float) f;
+    }
+
+    public void addFraction (int x, int y, double f) {
+        fractional[y*width + x] += (float) f;
+    }
+
+    private void setBox (int x1, int y1, int x2, int y2, byte outside) {
+        boxX1 = x1;
+        boxY1 = y1;
+        boxX2 = x2;
+        boxY2 = y2;
+        rest = outside;
+    }
+
+    // Sets every tile in a box to code, with no fraction.
+    private void clearBox (int x1, int y1, int x2, int y2, byte code) {
+        for (int y = y1; y <= y2; y++) {
+            Arrays.fill(ternary, y*width + x1, y*width + x2 + 1, code);
+            Arrays.fill(fractional, y*width + x1, y*width + x2 + 1, 0f);
+        }
+    }
+
+    private void copyBox (VisData other, int x1, int y1, int x2, int y2) {
+        for (int y = y1; y <= y2; y++) {
+            System.arraycopy(other.ternary, y*width + x1, ternary, y*width + x1, x2 - x1 + 1);
+            System.arraycopy(other.fractional, y*width + x1, fractional, y*width + x1, x2 - x1 + 1);
+        }
+    }
+
 }
@@ -0,0 +1,124 @@
+import java.util.Arrays;
+
+/**
+ * The walls of the floor, one bit per tile.
+ *
+ * Kept twice over: once in rows, and once transposed into columns, so a run
+ * of tiles in either direction can be checked 64 at a time. Both are indexed
+ * like the floor grid, not by coordinates. DrawUtil keeps this in step with
+ * the floor once it has been given one with setWalls.
+ */
+public class WallBits {
+
+    private final int width;
+    private final int height;
+
+    private final int rowWords;
+    private final int colWords;
+
+    // Row y starts at rows[y*rowWords]; column x starts at cols[x*colWords].
+    private final long[] rows;
+    private final long[] cols;
+
+    public WallBits (int width, int height) {
+        this.width = width;
+        this.height = height;
+        rowWords = (width + 63) >>> 6;
+        colWords = (height + 63) >>> 6;
+        rows = new long[rowWords*height];
+        cols = new long[colWords*width];
+    }
+
+    /**
+     * Overwrites everything with the walls currently on a floor.
+     * @param floor A floor of the same size. Nonzero tiles are walls.
+     */
+    public void load (WorldGrid floor) {
+
+        Arrays.fill(rows, 0);
+        Arrays.fill(cols, 0);
+        for (int y = 0; y < height; y++)
+            for (int x = 0; x < width; x++)
+                if (floor.get(x, y) != 0) set(x, y, true);
+
+    }
+
+    // Whether a tile is a wall. Everything off the floor counts as one.
+    public boolean isWall (int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) return true;
+        return (rows[y*rowWords + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    /**
+     * How far apart rows are in bits. Tile (x, y) is bit y * stride + x,
+     * counting from the first bit of the first row, for isWallBit.
+     */
+    public int getStride () {
+        return rowWords << 6;
+    }
+
+    // Whether the tile at a bit is a wall. Doesn't check bounds.
+    public boolean isWallBit (int bit) {
+        return (rows[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    public void set (int x, int y, boolean wall) {
+        setRect(x, y, x, y, wall);
+    }
+
+    /**
+     * Makes every tile in a rectangle a wall, or not.
+     * @param x1 The left edge, inclusive.
+     * @param y1 The bottom edge, inclusive.
+     * @param x2 The right edge, inclusive.
+     * @param y2 The top edge, inclusive.
+     * @param wall Whether the tiles are walls.
+     */
+    public void setRect (int x1, int y1, int x2, int y2, boolean wall) {
+        for (int y = y1; y <= y2; y++) setRange(rows, y*rowWords, x1, x2, wall);
+        for (int x = x1; x <= x2; x++) setRange(cols, x*colWords, y1, y2, wall);
+    }
+
+    /**
+     * Finds the leftmost wall in part of a row.
+     * @return Its x index, or -1 if there's no wall from x1 to x2 inclusive.
+     */
+    public int firstWallInRow (int y, int x1, int x2) {
+        return firstSet(rows, y*rowWords, x1, x2);
+    }
+
+    /**
+     * Finds the lowest wall in part of a column.
+     * @return Its y index, or -1 if there's no wall from y1 to y2 inclusive.
+     */
+    public int firstWallInColumn (int x, int y1, int y2) {
+        return firstSet(cols, x*colWords, y1, y2);
+    }
+
+    private static void setRange (long[] bits, int base, int from, int to, boolean on) {
+
+        for (int w = from >>> 6; w <= to >>> 6; w++) {
+            long mask = -1L;
+            if (w == from >>> 6) mask &= -1L << from;
+            if (w == to >>> 6) mask &= -1L >>> (63 - (to & 63));
+            if (on) bits[base + w] |= mask;
+            else bits[base + w] &= ~mask;
+        }
+
+    }
+
+    private static int firstSet (long[] bits, int base, int from, int to) {
+
+        if (from > to) return -1;
+
+        for (int w = from >>> 6; w <= to >>> 6; w++) {
+            long word = bits[base + w];
+            if (w == from >>> 6) word &= -1L << from;
+            if (w == to >>> 6) word &= -1L >>> (63 - (to & 63));
+            if (word != 0) return (w << 6) + Long.numberOfTrailingZeros(word);
+        }
+        return -1;
+
+    }
+
+}
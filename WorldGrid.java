@@ -0,0 +1,208 @@
+import java.util.Arrays;
+
+/**
+ * One layer of the level -- the floor, or the contents on top of it -- with
+ * its size decided at runtime.
+ *
+ * Tiles are stored in square chunks that only come into being when a nonzero
+ * value is first written to them, so stretches of the map nobody has touched
+ * cost nothing but a null reference. Reads from a missing chunk give 0.
+ *
+ * The grid also owns the conversion between coordinates, which run from
+ * -xRad to xRad with (0, 0) in the middle, and indices, which run from 0 to
+ * width - 1. Anything taking an "x" or "y" works in coordinates unless it
+ * says otherwise. Every write bumps the grid's version, so caches of work
+ * done on it can tell when they're stale.
+ */
+public class WorldGrid {
+
+    /**
+     * Chunks are CHUNK tiles on a side. Must be a power of two.
+     */
+    public static final int CHUNK_BITS = 5;
+    public static final int CHUNK = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK - 1;
+
+    private final int xRad;
+    private final int yRad;
+    private final int width;
+    private final int height;
+
+    private final int chunksX;
+    private final int chunksY;
+
+    // Chunk (cx, cy) lives at chunks[cy*chunksX + cx], row-major inside.
+    private final int[][] chunks;
+
+    private long version = 0;
+
+    /**
+     * @param xRad The "radius" in the X direction -- the width in each
+     * direction from the center. Always leads to an odd number of tiles.
+     * @param yRad The same for the Y direction.
+     */
+    public WorldGrid (int xRad, int yRad) {
+        this(xRad, yRad, true);
+    }
+
+    /**
+     * For a subclass that keeps its chunks itself, overriding chunk and
+     * allocatedChunks, and has no use for a table of every one.
+     * @param table Whether to make the table.
+     */
+    protected WorldGrid (int xRad, int yRad, boolean table) {
+        this.xRad = xRad;
+        this.yRad = yRad;
+        width = 2*xRad + 1;
+        height = 2*yRad + 1;
+        chunksX = (width + CHUNK_MASK) >>> CHUNK_BITS;
+        chunksY = (height + CHUNK_MASK) >>> CHUNK_BITS;
+        chunks = table ? new int[chunksX*chunksY][] : null;
+    }
+
+    public int getXRad () {
+        return xRad;
+    }
+
+    public int getYRad () {
+        return yRad;
+    }
+
+    public int getWidth () {
+        return width;
+    }
+
+    public int getHeight () {
+        return height;
+    }
+
+    public int getChunksX () {
+        return chunksX;
+    }
+
+    public int getChunksY () {
+        return chunksY;
+    }
+
+    public int iCx (int index) {
+        return index - xRad;
+    }
+
+    public int iCy (int index) {
+        return index - yRad;
+    }
+
+    public int cIx (int coord) {
+        return coord + xRad;
+    }
+
+    public int cIy (int coord) {
+        return coord + yRad;
+    }
+
+    // Ensures that a pair of coordinates is "good" -- within the bounds of the
+    // level, and referring to a tile actually held in the grid.
+    public boolean goodCoords (int x, int y) {
+        return x >= -xRad && x <= xRad && y >= -yRad && y <= yRad;
+    }
+
+    /**
+     * Reads a tile by index. Doesn't check bounds.
+     * @param ix The x index.
+     * @param iy The y index.
+     * @return The tile's value, or 0 if its chunk was never written.
+     */
+    public int get (int ix, int iy) {
+        int[] c = chunk(ix >>> CHUNK_BITS, iy >>> CHUNK_BITS, false);
+        return c == null ? 0 : c[((iy & CHUNK_MASK) << CHUNK_BITS) | (ix & CHUNK_MASK)];
+    }
+
+    /**
+     * Writes a tile by index. Doesn't check bounds. Writing 0 into a chunk
+     * that doesn't exist yet leaves it that way.
+     */
+    public void set (int ix, int iy, int value) {
+        int[] c = chunk(ix >>> CHUNK_BITS, iy >>> CHUNK_BITS, value != 0);
+        if (c != null) c[((iy & CHUNK_MASK) << CHUNK_BITS) | (ix & CHUNK_MASK)] = value;
+        version++;
+    }
+
+    /**
+     * Writes the same value over a rectangle of tiles by index, edges
+     * included, a row of a chunk at a time. Doesn't check bounds. Bumps the
+     * version once, not once a tile.
+     * @param ix1 The x index of the left column.
+     * @param iy1 The y index of the bottom row.
+     * @param ix2 The x index of the right column, not less than ix1.
+     * @param iy2 The y index of the top row, not less than iy1.
+     */
+    public void fill (int ix1, int iy1, int ix2, int iy2, int value) {
+
+        for (int cy = iy1 >>> CHUNK_BITS; cy <= iy2 >>> CHUNK_BITS; cy++)
+            for (int cx = ix1 >>> CHUNK_BITS; cx <= ix2 >>> CHUNK_BITS; cx++) {
+
+                int[] c = chunk(cx, cy, value != 0);
+                if (c == null) continue;
+                // Writing 0 into a chunk that doesn't exist changes nothing.
+
+                int x1 = Math.max(ix1, cx << CHUNK_BITS) & CHUNK_MASK;
+                int x2 = (Math.min(ix2, (cx << CHUNK_BITS) + CHUNK_MASK) & CHUNK_MASK) + 1;
+                int y1 = Math.max(iy1, cy << CHUNK_BITS) & CHUNK_MASK;
+                int y2 = Math.min(iy2, (cy << CHUNK_BITS) + CHUNK_MASK) & CHUNK_MASK;
+                for (int y = y1; y <= y2; y++) Arrays.fill(c, (y << CHUNK_BITS) + x1, (y << CHUNK_BITS) + x2, value);
+                filled(cx, cy);
+
+            }
+
+        version++;
+
+    }
+
+    // Reads a tile by coordinates. Doesn't check bounds.
+    public int getAt (int x, int y) {
+        return get(x + xRad, y + yRad);
+    }
+
+    // Writes a tile by coordinates. Doesn't check bounds.
+    public void setAt (int x, int y, int value) {
+        set(x + xRad, y + yRad, value);
+    }
+
+    public long getVersion () {
+        return version;
+    }
+
+    /**
+     * Finds the storage for a chunk.
+     * @param cx The chunk's x index.
+     * @param cy The chunk's y index.
+     * @param create Whether to allocate the chunk if it isn't there yet.
+     * @return The chunk's tiles, or null if it doesn't exist and create is false.
+     */
+    protected int[] chunk (int cx, int cy, boolean create) {
+        int i = cy*chunksX + cx;
+        int[] c = chunks[i];
+        if (c == null && create) c = chunks[i] = new int[CHUNK*CHUNK];
+        return c;
+    }
+
+    /**
+     * Called by fill after writing into a chunk, for a subclass that needs to
+     * know. Does nothing here.
+     * @param cx The chunk's x index.
+     * @param cy The chunk's y index.
+     */
+    protected void filled (int cx, int cy) {
+    }
+
+    /**
+     * Counts the chunks that have been allocated, for keeping an eye on
+     * memory use.
+     */
+    public int allocatedChunks () {
+        int n = 0;
+        for (int[] c : chunks) if (c != null) n++;
+        return n;
+    }
+
+}